@@ -1,5 +1,6 @@
 package cthoelken;
 
+import java.io.IOException;
 import java.security.InvalidParameterException;
 
 /**
@@ -181,24 +182,11 @@ public class Alignment {
 	 * @see java.lang.Object#toString()
 	 */
 	public String toString() {
-		for(int i = 1; i < sequences.length; i++)
-			if(sequences[i].length() != sequences[0].length())
-				return "Sequences in the alignment are not propperly aligned!\n";
-		String retVal = "";
-		String prefix = "0";
-		int limit = 0; int matchlimit = 0;
-		for(int times = 0; times <= sequences[0].length()/76; times++) {
-			limit = (sequences[0].length() > times*76+75) ? (times*76+75) : (sequences[0].length()%76 + times*76);
-			retVal += "01: " + sequences[0].substring(times*76,limit) + "\n";
-			for(int i=1; i<sequences.length; i++) {
-				prefix = (i > 9) ? "" : "0";
-				matchlimit = (matches[i-1].length() > times*76+75) ? (times*76+75) : (matches[i-1].length()%76 + times*76);
-				retVal += "    " + matches[i-1].substring(times*76,matchlimit) + "\n" + prefix + (i+1) +
-					": "+ sequences[i].substring(times*76,limit) + "\n";
-			}
-			retVal += "\n";
-		}
-		return retVal;
+		StringBuilder retVal = new StringBuilder();
+		try {
+			AlignmentWriter.writePretty(this, retVal);
+		} catch(IOException e) { throw new IllegalStateException(e); }
+		return retVal.toString();
 	}
 
 	
@@ -0,0 +1,272 @@
+package cthoelken;
+
+import java.util.Arrays;
+
+/**
+ * Multiple alignment stored column by column in one contiguous byte array,
+ * one ASCII symbol per cell. A column is a consecutive block of the array,
+ * so column access is O(1) without any String in between, and gap columns
+ * are inserted for all rows in a single pass. Use of() and toAlignment() to
+ * convert from and to an Alignment.
+ *
+ * @author Clemens Thoelken
+ *
+ */
+public class AlignmentMatrix {
+
+	private static final char UNKNOWN = '?';	// stored for symbols outside ASCII
+
+	byte[] cells;				// column after column, rows within a column
+	private int rows;			// number of sequences
+	private int cols;			// number of columns
+	private String[] names;		// sequence names
+	public double score;
+
+	/** Constructor for an alignment filled with gaps
+	 * @param rows Number of sequences
+	 * @param cols Number of columns
+	 */
+	public AlignmentMatrix(int rows, int cols) {
+		if(rows < 2)
+			throw new IllegalArgumentException("Too few sequences for an alignment!");
+		if(cols < 0)
+			throw new IllegalArgumentException("Number of columns must not be negative!");
+		if((long) rows * cols > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Alignment too large!");
+		this.rows = rows; this.cols = cols;
+		cells = new byte[rows * cols];
+		Arrays.fill(cells, (byte) '_');
+		names = new String[rows];
+		Arrays.fill(names, "");
+	}
+
+	/** Copies an Alignment into a new matrix
+	 * @param algn Alignment of sequences with equal lengths
+	 * @return The matrix with the same rows and names
+	 */
+	public static AlignmentMatrix of(Alignment algn) {
+		int cols = algn.getSeq(0).length();
+		for(int x = 1; x < algn.size(); x++)
+			if(algn.getSeq(x).length() != cols)
+				throw new IllegalArgumentException("Sequences in alignment are not of the same length!");
+		AlignmentMatrix msa = new AlignmentMatrix(algn.size(), cols);
+		for(int x = 0; x < algn.size(); x++) {
+			msa.setRow(x, algn.getSeq(x));
+			if(algn.names != null && algn.names[x] != null) msa.names[x] = algn.names[x];
+		}
+		msa.score = algn.getScore();
+		return msa;
+	}
+
+	/** Determines the number of sequences
+	 * @return Number of rows
+	 */
+	public int rows() {
+		return rows;
+	}
+
+	/** Determines the length of the alignment
+	 * @return Number of columns
+	 */
+	public int columns() {
+		return cols;
+	}
+
+	/** Getter for a single symbol
+	 * @param row Index of the sequence
+	 * @param col Index of the column
+	 * @return The symbol
+	 */
+	public char get(int row, int col) {
+		if(row < 0 || row >= rows || col < 0 || col >= cols)
+			throw new IllegalArgumentException("Index out of bounds in AlignmentMatrix");
+		return (char) cells[col * rows + row];
+	}
+
+	/** Setter for a single symbol
+	 * @param row Index of the sequence
+	 * @param col Index of the column
+	 * @param symbol ASCII symbol
+	 */
+	public void set(int row, int col, char symbol) {
+		if(row < 0 || row >= rows || col < 0 || col >= cols)
+			throw new IllegalArgumentException("Index out of bounds in AlignmentMatrix");
+		cells[col * rows + row] = ascii(symbol);
+	}
+
+	/** Returns a copy of a column
+	 * @param col Index of the column
+	 * @return The symbols of all sequences in this column
+	 */
+	public char[] getColumn(int col) {
+		if(col < 0 || col >= cols)
+			throw new IllegalArgumentException("Index out of bounds in AlignmentMatrix");
+		char[] column = new char[rows];
+		for(int x = 0, i = col * rows; x < rows; x++, i++) column[x] = (char) cells[i];
+		return column;
+	}
+
+	/** Counts the codes of the symbols in a column
+	 * @param col Index of the column
+	 * @param counts Array of length EncodedSequence.SIZE, overwritten
+	 * @return The counts, per code the number of rows with this code
+	 */
+	public int[] getCounts(int col, int[] counts) {
+		if(col < 0 || col >= cols)
+			throw new IllegalArgumentException("Index out of bounds in AlignmentMatrix");
+		Arrays.fill(counts, 0);
+		for(int i = col * rows, end = i + rows; i < end; i++)
+			counts[EncodedSequence.code((char) cells[i])]++;
+		return counts;
+	}
+
+	/** Returns a sequence row as string
+	 * @param row Index of the sequence
+	 * @return The aligned sequence with gaps
+	 */
+	public String getRow(int row) {
+		if(row < 0 || row >= rows)
+			throw new IllegalArgumentException("Index out of bounds in AlignmentMatrix");
+		char[] seq = new char[cols];
+		for(int z = 0, i = row; z < cols; z++, i += rows) seq[z] = (char) cells[i];
+		return new String(seq);
+	}
+
+	/** Overwrites a sequence row
+	 * @param row Index of the sequence
+	 * @param seq Aligned sequence of the length of the alignment
+	 */
+	public void setRow(int row, String seq) {
+		if(row < 0 || row >= rows)
+			throw new IllegalArgumentException("Index out of bounds in AlignmentMatrix");
+		if(seq.length() != cols)
+			throw new IllegalArgumentException("Sequence length does not match the alignment!");
+		for(int z = 0, i = row; z < cols; z++, i += rows) cells[i] = ascii(seq.charAt(z));
+	}
+
+	/** Getter for the name of a sequence
+	 * @param row Index of the sequence
+	 * @return The name
+	 */
+	public String getName(int row) {
+		if(row < 0 || row >= rows)
+			throw new IllegalArgumentException("Index out of bounds in AlignmentMatrix");
+		return names[row];
+	}
+
+	/** Setter for the name of a sequence
+	 * @param row Index of the sequence
+	 * @param name The name
+	 */
+	public void setName(int row, String name) {
+		if(row < 0 || row >= rows)
+			throw new IllegalArgumentException("Index out of bounds in AlignmentMatrix");
+		names[row] = name;
+	}
+
+	/** Inserts gap columns at many positions in one pass over the cells
+	 * @param positions Ascending column indices in the current alignment, the
+	 * gap column is inserted in front of each, cols appends at the end. A
+	 * position occurring k times inserts k columns.
+	 * @param gap The gap symbol
+	 */
+	public void insertGapColumns(int[] positions, char gap) {
+		for(int k = 0; k < positions.length; k++)
+			if(positions[k] < 0 || positions[k] > cols || (k > 0 && positions[k] < positions[k-1]))
+				throw new IllegalArgumentException("Gap positions not ascending within the alignment!");
+		if((long) rows * (cols + positions.length) > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Alignment too large!");
+		byte[] grown = new byte[rows * (cols + positions.length)];
+		byte symbol = ascii(gap);
+		int from = 0, to = 0;
+		for(int k = 0; k < positions.length; k++) {
+			int length = positions[k] * rows - from;
+			System.arraycopy(cells, from, grown, to, length);
+			from += length; to += length;
+			Arrays.fill(grown, to, to + rows, symbol);
+			to += rows;
+		}
+		System.arraycopy(cells, from, grown, to, cells.length - from);
+		cells = grown;
+		cols += positions.length;
+	}
+
+	/** Inserts a block of gap columns
+	 * @param col Index of the column in front of which the gaps are inserted
+	 * @param count Number of gap columns
+	 * @param gap The gap symbol
+	 */
+	public void insertGapColumns(int col, int count, char gap) {
+		int[] positions = new int[count];
+		Arrays.fill(positions, col);
+		insertGapColumns(positions, gap);
+	}
+
+	/** Scores the alignment based on the SOP-Score. Per column only the
+	 * symbols are counted, so a column costs O(rows) instead of O(rows^2).
+	 * @param omega Substitution matrix with the gap costs
+	 * @return The total score
+	 */
+	public double sumOfPairs(SubstitutionMatrix omega) {
+		int[] counts = new int[EncodedSequence.SIZE];
+		int[] present = new int[EncodedSequence.SIZE];
+		double score = 0;
+		for(int col = 0; col < cols; col++) {
+			getCounts(col, counts);
+			int size = 0;
+			for(byte a = 0; a < counts.length; a++) {
+				if(counts[a] == 0) continue;
+				present[size++] = a;
+				score += (double) counts[a] * (counts[a] - 1) / 2 * omega.getScore(a, a);
+			}
+			for(int i = 0; i < size; i++)
+				for(int j = i + 1; j < size; j++)
+					score += (double) counts[present[i]] * counts[present[j]]
+							* omega.getScore((byte) present[i], (byte) present[j]);
+		}
+		return score;
+	}
+
+	/** Copies the matrix into an Alignment with match symbols between
+	 * neighbouring sequences
+	 * @return The Alignment
+	 */
+	public Alignment toAlignment() {
+		Alignment algn = new Alignment(rows);
+		char[] row = new char[cols];
+		for(int x = 0; x < rows; x++) {
+			algn.setSeq(x, getRow(x));
+			algn.setName(x, names[x]);
+		}
+		for(int x = 0; x < rows - 1; x++) {
+			for(int z = 0, i = x; z < cols; z++, i += rows) {
+				char a = (char) cells[i], b = (char) cells[i+1];
+				if(isGap(a) || isGap(b)) row[z] = ' ';
+				else row[z] = (Character.toUpperCase(a) == Character.toUpperCase(b)) ? '|' : '*';
+			}
+			algn.matches[x] = new String(row);
+		}
+		algn.score = score;
+		return algn;
+	}
+
+	/** Checks a symbol for being one of the gap symbols '_' and '-'
+	 * @param a The symbol
+	 * @return TRUE if it is a gap
+	 */
+	private static boolean isGap(char a) {
+		return a == '_' || a == '-';
+	}
+
+	/** Converts a symbol into a cell value. Symbols outside ASCII are stored
+	 * like EncodedSequence scores them, as their ASCII upper case if there is
+	 * one and as the unknown symbol otherwise.
+	 * @param a The symbol
+	 * @return The ASCII value
+	 */
+	private static byte ascii(char a) {
+		if(a < 128) return (byte) a;
+		a = Character.toUpperCase(a);
+		return (a < 128) ? (byte) a : (byte) UNKNOWN;
+	}
+}
@@ -0,0 +1,186 @@
+package cthoelken;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes alignments line by line to an Appendable, so large results never
+ * have to exist as one String. Besides the pretty print of Alignment the
+ * common exchange formats aligned FASTA, Clustal and Stockholm are supported.
+ * Only one line is buffered at a time.
+ *
+ * @author Clemens Thoelken
+ *
+ */
+public class AlignmentWriter {
+
+	private static final int PRETTY_WIDTH = 76;	// block width of the pretty print
+	private static final int FASTA_WIDTH = 60;		// line width of FASTA
+	private static final int CLUSTAL_WIDTH = 60;	// block width of Clustal
+
+	/** Wraps a channel into a Writer for the methods of this class. The
+	 * writer has to be flushed after writing.
+	 * @param channel The channel to write to
+	 * @return A Writer encoding UTF-8 into the channel, so names keep their
+	 * non-ASCII characters
+	 */
+	public static Writer writer(WritableByteChannel channel) {
+		return Channels.newWriter(channel, "UTF-8");
+	}
+
+	/** Writes the pretty print of Alignment.toString() in 76 chars blocks
+	 * with symbols for matches and mismatches
+	 * @param algn The alignment
+	 * @param out Destination of the output
+	 * @throws IOException If the destination fails
+	 */
+	public static void writePretty(Alignment algn, Appendable out) throws IOException {
+		String[] sequences = algn.sequences, matches = algn.matches;
+		for(int i = 1; i < sequences.length; i++)
+			if(sequences[i].length() != sequences[0].length()) {
+				out.append("Sequences in the alignment are not propperly aligned!\n");
+				return;
+			}
+		int length = sequences[0].length();
+		for(int times = 0; times <= length / PRETTY_WIDTH; times++) {
+			int from = times * PRETTY_WIDTH;
+			int limit = (length > from + 75) ? (from + 75) : (length % PRETTY_WIDTH + from);
+			out.append("01: ").append(sequences[0], from, limit).append("\n");
+			for(int i = 1; i < sequences.length; i++) {
+				int matchlimit = (matches[i-1].length() > from + 75)
+						? (from + 75) : (matches[i-1].length() % PRETTY_WIDTH + from);
+				out.append("    ").append(matches[i-1], from, matchlimit).append("\n")
+					.append((i > 9) ? "" : "0").append(String.valueOf(i + 1)).append(": ")
+					.append(sequences[i], from, limit).append("\n");
+			}
+			out.append("\n");
+		}
+	}
+
+	/** Writes the alignment in aligned FASTA format, gaps as '-'
+	 * @param algn The alignment
+	 * @param out Destination of the output
+	 * @throws IOException If the destination fails
+	 */
+	public static void writeFasta(Alignment algn, Appendable out) throws IOException {
+		for(int i = 0; i < algn.size(); i++) {
+			out.append('>').append(name(algn, i)).append('\n');
+			String seq = algn.getSeq(i);
+			for(int from = 0; from < seq.length(); from += FASTA_WIDTH) {
+				appendGapped(seq, from, Math.min(seq.length(), from + FASTA_WIDTH), out);
+				out.append('\n');
+			}
+		}
+	}
+
+	/** Writes the alignment in Clustal format, blocks of 60 columns with a
+	 * line marking the fully conserved columns by '*'
+	 * @param algn The alignment of sequences with equal lengths
+	 * @param out Destination of the output
+	 * @throws IOException If the destination fails
+	 */
+	public static void writeClustal(Alignment algn, Appendable out) throws IOException {
+		int length = checkedLength(algn), width = nameWidth(algn);
+		out.append("CLUSTAL W multiple sequence alignment\n\n");
+		for(int from = 0; from < length; from += CLUSTAL_WIDTH) {
+			int to = Math.min(length, from + CLUSTAL_WIDTH);
+			for(int i = 0; i < algn.size(); i++) {
+				pad(name(algn, i), width, out);
+				appendGapped(algn.getSeq(i), from, to, out);
+				out.append('\n');
+			}
+			pad("", width, out);
+			for(int z = from; z < to; z++) out.append(isConserved(algn, z) ? '*' : ' ');
+			out.append("\n\n");
+		}
+	}
+
+	/** Writes the alignment in Stockholm format, one line per sequence
+	 * @param algn The alignment of sequences with equal lengths
+	 * @param out Destination of the output
+	 * @throws IOException If the destination fails
+	 */
+	public static void writeStockholm(Alignment algn, Appendable out) throws IOException {
+		int length = checkedLength(algn), width = nameWidth(algn);
+		out.append("# STOCKHOLM 1.0\n\n");
+		for(int i = 0; i < algn.size(); i++) {
+			pad(name(algn, i), width, out);
+			appendGapped(algn.getSeq(i), 0, length, out);
+			out.append('\n');
+		}
+		out.append("//\n");
+	}
+
+	/** Appends a part of an aligned sequence with '_' written as '-'
+	 * @param seq The aligned sequence
+	 * @param from First position
+	 * @param to Position behind the last one
+	 * @param out Destination of the output
+	 * @throws IOException If the destination fails
+	 */
+	private static void appendGapped(String seq, int from, int to, Appendable out) throws IOException {
+		for(int z = from; z < to; z++) {
+			char a = seq.charAt(z);
+			out.append((a == '_') ? '-' : a);
+		}
+	}
+
+	/** Checks whether all sequences have the same residue in a column
+	 * @param algn The alignment
+	 * @param z Index of the column
+	 * @return TRUE if the column has no gap and only one residue
+	 */
+	private static boolean isConserved(Alignment algn, int z) {
+		char a = Character.toUpperCase(algn.getSeq(0).charAt(z));
+		if(a == '_' || a == '-') return false;
+		for(int i = 1; i < algn.size(); i++)
+			if(Character.toUpperCase(algn.getSeq(i).charAt(z)) != a) return false;
+		return true;
+	}
+
+	/** Returns the name of a sequence, a generic one if it has none
+	 * @param algn The alignment
+	 * @param i Index of the sequence
+	 * @return The name without whitespace
+	 */
+	private static String name(Alignment algn, int i) {
+		String name = (algn.names == null) ? null : algn.names[i];
+		if(name == null || name.trim().length() == 0) return "seq" + (i + 1);
+		return name.trim().replaceAll("\\s", "_");
+	}
+
+	/** Determines the width of the name column
+	 * @param algn The alignment
+	 * @return Length of the longest name plus separating spaces
+	 */
+	private static int nameWidth(Alignment algn) {
+		int width = 0;
+		for(int i = 0; i < algn.size(); i++) width = Math.max(width, name(algn, i).length());
+		return width + 4;
+	}
+
+	/** Appends a string padded with spaces
+	 * @param s The string
+	 * @param width Total width
+	 * @param out Destination of the output
+	 * @throws IOException If the destination fails
+	 */
+	private static void pad(String s, int width, Appendable out) throws IOException {
+		out.append(s);
+		for(int k = s.length(); k < width; k++) out.append(' ');
+	}
+
+	/** Checks that all sequences have the same length
+	 * @param algn The alignment
+	 * @return The length of the alignment
+	 */
+	private static int checkedLength(Alignment algn) {
+		int length = algn.getSeq(0).length();
+		for(int i = 1; i < algn.size(); i++)
+			if(algn.getSeq(i).length() != length)
+				throw new IllegalArgumentException("Sequences in alignment are not of the same length!");
+		return length;
+	}
+}
@@ -0,0 +1,133 @@
+package cthoelken;
+
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+
+/** Cost matrix for two sequences which only stores a band of diagonals,
+ * all cells with lower &lt;= y-x &lt;= upper. Every row keeps the cells of the
+ * band plus one border cell, so memory is O(n*k) instead of O(n*m). Cells
+ * outside of the band read as NEGATIVE_INFINITY, so no path can leave it.
+ * @author Clemens Thoelken
+ *
+ */
+public class BandedCostMatrix extends CostMatrix {
+
+	final double[] cells;	// band cells of every row, each after a border cell
+	final int stride;		// distance between two rows in cells
+	final int lower;		// lowest diagonal y-x in the band
+	final int upper;		// highest diagonal y-x in the band
+	final int xLength;
+	final int yLength;
+
+	/** Constructor for two sequences
+	 * @param xLength Length of sequence 1
+	 * @param yLength Length of sequence 2
+	 * @param lower Lowest diagonal y-x in the band, at most 0
+	 * @param upper Highest diagonal y-x in the band, at least yLength-xLength
+	 */
+	BandedCostMatrix(int xLength, int yLength, int lower, int upper) {
+		if(xLength < 1 || yLength < 1)
+			throw new InvalidParameterException("Sequence length not feasable!");
+		if(lower > Math.min(0, yLength-xLength) || upper < Math.max(0, yLength-xLength))
+			throw new InvalidParameterException("Band does not contain both corners!");
+		this.xLength = xLength; this.yLength = yLength;
+		this.lower = lower; this.upper = upper;
+		stride = upper - lower + 2;
+		// border row above, border cell left of every row
+		cells = new double[(xLength + 1) * stride];
+		Arrays.fill(cells, Double.NEGATIVE_INFINITY);
+		for(int x = 0; x < xLength; x++)
+			Arrays.fill(cells, index(x, first(x)), index(x, last(x)) + 1, 0.0);
+	}
+
+	/** Computes the position of x, y in the flat array. The cell above is at
+	 * index-stride+1, the cell to the left at index-1 and the diagonal
+	 * predecessor at index-stride.
+	 * @param x Position in sequence 1
+	 * @param y Position in sequence 2, within the band
+	 * @return Index in cells
+	 */
+	final int index(int x, int y) {
+		return (x + 1) * stride + 1 + y - x - lower;
+	}
+
+	/** First column of a row within the band
+	 * @param x Position in sequence 1
+	 * @return Smallest y in the band
+	 */
+	final int first(int x) {
+		return Math.max(0, x + lower);
+	}
+
+	/** Last column of a row within the band
+	 * @param x Position in sequence 1
+	 * @return Largest y in the band
+	 */
+	final int last(int x) {
+		return Math.min(yLength - 1, x + upper);
+	}
+
+	@Override
+	public double get(int x, int y) {
+		if(x < 0 || x >= xLength || y < first(x) || y > last(x))
+			return Double.NEGATIVE_INFINITY;
+		return cells[index(x, y)];
+	}
+
+	@Override
+	public double get(int x, int y, int z) {
+		if(z != 0) return Double.NEGATIVE_INFINITY;
+		return get(x, y);
+	}
+
+	@Override
+	final int index(int x, int y, int z) {
+		return index(x, y);
+	}
+	
+	@Override
+	void recordPointers() {
+		pointers = new byte[cells.length];
+	}
+	
+	@Override
+	public double score() {
+		return cells[index(xLength-1, yLength-1)];
+	}
+
+	@Override
+	public void set(int x, int y, double value) {
+		if(x < 0 || x >= xLength || y < first(x) || y > last(x))
+			throw new InvalidParameterException("Index not feasable! x="+x+" y="+y);
+		cells[index(x, y)] = value;
+	}
+
+	@Override
+	public void set(int x, int y, int z, double value) {
+		if(z != 0)
+			throw new InvalidParameterException("Index not feasable! x="+x+" y="+y+" z="+z);
+		set(x, y, value);
+	}
+
+	/** Checks whether a cell lies on a diagonal at the edge of the band which
+	 * does not coincide with the edge of the full matrix
+	 * @param x Position in sequence 1
+	 * @param y Position in sequence 2
+	 * @return TRUE if a wider band could offer other paths through this cell
+	 */
+	boolean onEdge(int x, int y) {
+		return (y - x == lower && lower > 1 - xLength) || (y - x == upper && upper < yLength - 1);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		StringBuilder retVal = new StringBuilder();
+		for(int x = 0; x < xLength; x++)
+			retVal.append(first(x)).append(": ").append(Arrays.toString(Arrays.copyOfRange(
+					cells, index(x, first(x)), index(x, last(x)) + 1))).append("\n");
+		return retVal.toString();
+	}
+
+}
@@ -0,0 +1,108 @@
+package cthoelken;
+
+/**
+ * Computes the Needleman Wunsch scores of one sequence against a batch of
+ * others at once, one of them per lane. All lanes advance through their cost
+ * matrices in lockstep, so a cell of the query row is one pass over the lanes.
+ * The rows are stored per column with the lanes next to each other, and the
+ * innermost loop reads and writes every array at the lane index only, with
+ * the maximum taken by arithmetic instead of branches. That is the shape the
+ * JIT compiler turns into SIMD instructions. The substitution scores of the
+ * batch are looked up once per code and reused for every query, so all pairs
+ * between two groups of sequences cost one profile per group.
+ *
+ * Only integral costs are supported, see isFeasable().
+ *
+ * @author Clemens Thoelken
+ *
+ */
+class BatchNeedlemanWunsch {
+
+	private int[] table;		// integer substitution scores per pair of codes
+	private int gap;			// linear gap costs
+	private int lanes;			// number of sequences in the batch
+	private int m;				// length of the longest sequence in the batch
+	private byte[][] codes;		// codes of the sequences in the batch
+	private int[][][] profiles;	// per code and column the scores of all lanes
+	private int[][] prev, curr;	// per column the scores of all lanes
+
+	/** Constructor
+	 * @param omega Substitution matrix, must be integral
+	 * @param gapCosts Linear gap costs, must be integral
+	 * @param batch The sequences of the batch, one per lane
+	 */
+	BatchNeedlemanWunsch(SubstitutionMatrix omega, int gapCosts, EncodedSequence[] batch) {
+		if(omega.intTable == null || batch.length < 1)
+			throw new IllegalArgumentException("Costs not feasable for the batch approach!");
+		this.table = omega.intTable;
+		this.gap = gapCosts;
+		this.lanes = batch.length;
+		codes = new byte[lanes][];
+		for(int l = 0; l < lanes; l++) {
+			codes[l] = batch[l].codes;
+			m = Math.max(m, batch[l].length());
+		}
+		profiles = new int[EncodedSequence.SIZE][][];
+		prev = new int[m+1][lanes];
+		curr = new int[m+1][lanes];
+	}
+
+	/** Checks whether the batch approach can be used
+	 * @param omega Substitution matrix
+	 * @param gapCosts Linear gap costs
+	 * @param steps Sum of the longest lengths on both sides
+	 * @return TRUE if all costs are integral and no score can overflow
+	 */
+	static boolean isFeasable(SubstitutionMatrix omega, double gapCosts, int steps) {
+		return omega.isIntegral() && Util.fitsInt(steps + 2, omega.getMaxAbsScore() + Math.abs(gapCosts));
+	}
+
+	/** Computes the scores of a sequence against all sequences of the batch
+	 * @param query The sequence
+	 * @return Per lane the score of the query against its sequence
+	 */
+	int[] score(EncodedSequence query) {
+		byte[] code1 = query.codes;
+		int n = query.length();
+		int[][] prev = this.prev, curr = this.curr, swap;
+		for(int j = 0; j <= m; j++)
+			for(int l = 0; l < lanes; l++) prev[j][l] = j * gap;
+
+		for(int i = 1; i <= n; i++) {
+			int[][] profile = profile(code1[i]);
+			int[] first = curr[0];
+			for(int l = 0; l < lanes; l++) first[l] = i * gap;
+			for(int j = 1; j <= m; j++) {
+				int[] diagonal = prev[j-1], up = prev[j], left = curr[j-1], cell = curr[j];
+				int[] sub = profile[j];
+				// max(max(left, up) + gap, diagonal + sub) without branches
+				for(int l = 0; l < lanes; l++) {
+					int h = left[l], d = h - up[l];
+					h = h - (d & (d >> 31)) + gap;
+					d = h - diagonal[l] - sub[l];
+					cell[l] = h - (d & (d >> 31));
+				}
+			}
+			swap = prev; prev = curr; curr = swap;
+		}
+
+		// shorter sequences are padded, their score is in their own column
+		int[] scores = new int[lanes];
+		for(int l = 0; l < lanes; l++) scores[l] = prev[codes[l].length - 1][l];
+		return scores;
+	}
+
+	/** Returns the substitution scores of a code against the batch, built on
+	 * first use. Columns behind the end of a sequence score 0.
+	 * @param c The code
+	 * @return Per column the scores of all lanes
+	 */
+	private int[][] profile(byte c) {
+		if(profiles[c] != null) return profiles[c];
+		int[][] profile = new int[m+1][lanes];
+		int row = c * EncodedSequence.SIZE;
+		for(int l = 0; l < lanes; l++)
+			for(int j = 1; j < codes[l].length; j++) profile[j][l] = table[row + codes[l][j]];
+		return profiles[c] = profile;
+	}
+}
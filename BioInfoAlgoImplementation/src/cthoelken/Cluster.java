@@ -1,6 +1,7 @@
 package cthoelken;
 
-import java.util.LinkedList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /** Auxilliary class for tree based clusters in UPGMA and WPGMA
  * @author Clemens Thoelken
@@ -8,11 +9,16 @@ import java.util.LinkedList;
  */
 public class Cluster {
 	
+	static final int PARALLEL_SIZE = 64;	// smallest subtree whose halves are aligned in parallel
+	
 	Cluster left, right;	// child nodes
 	int c;					// internal Integer of the sequence
 	String s;				// sequence String
 	double distance;		// distance (not really needed)
 	boolean weighted;		// true for WPGMA
+	DistanceStore distances;	// distances of the sequences, kept by the root
+	Cluster[] order;		// all leaves of the tree, shared by all its nodes
+	int first, last;		// range of the leaves of this node in the order
 	
 	
 	/** Constructor for a node with two children
@@ -41,61 +47,146 @@ public class Cluster {
 		return false;
 	}
 	
-	/** Computes the distance between this cluster and another
-	 * @param cluster The other cluster
-	 * @param weighted Use WPGMA or not
-	 * @param usePAM Use PAM for substituionMatrix
+	/** Recursively aligns the nodes of the cluster according to their hierarchy.
+	 * The closest pair of leaves is looked up in the distances the tree was
+	 * built from, without those they are computed once per pair. Trees of a
+	 * seed embedding choose the pair of two blocks by their seed vectors.
+	 * @param usePAM Use PAM for substitution
 	 * @param gapCosts Gap costs for the calculation
-	 * @return Returns the inverted similarity score of the two clusters
 	 */
-	double distance(Cluster cluster, boolean weighted, boolean usePAM, double gapCosts) {
-		NeedlemanWunsch nw = new NeedlemanWunsch();
-		if(isLeaf() && cluster.isLeaf())	// both nodes are sequences
-			return -nw.getScore(s, cluster.s, usePAM, gapCosts);
-		if(isLeaf()) {		// this is a sequence but the other one isn't -> recursion
-			return (cluster.left.distance(this, weighted, usePAM, gapCosts)+cluster.right.distance(this, weighted, usePAM, gapCosts));
-		}
-		if(!weighted)		// both are clusters -> recursion according to mode
-			return (cluster.distance(left, weighted, usePAM, gapCosts)+cluster.distance(right, weighted, usePAM, gapCosts))/2;
-		return (cluster.distance(left, weighted, usePAM, gapCosts)+cluster.distance(right, weighted, usePAM, gapCosts))/size();
+	void align(boolean usePAM, double gapCosts) {
+		align(usePAM, gapCosts, false);
 	}
 	
 	/** Recursively aligns the nodes of the cluster according to their hierarchy
 	 * @param usePAM Use PAM for substitution
 	 * @param gapCosts Gap costs for the calculation
+	 * @param useProfiles Merge two subtrees by aligning their profiles,
+	 * otherwise by aligning their closest pair of leaves
 	 */
-	void align(boolean usePAM, double gapCosts) {
+	void align(boolean usePAM, double gapCosts, boolean useProfiles) {
+		align(usePAM, gapCosts, useProfiles, PARALLEL_SIZE, ForkJoinPool.commonPool());
+	}
+	
+	/** Recursively aligns the nodes of the cluster according to their hierarchy.
+	 * The two subtrees of a node are independent, for large ones the left
+	 * subtree is forked while the right one is aligned, so a balanced tree
+	 * takes about its depth times the time of a merge. The result is the same
+	 * as aligned one after the other.
+	 * @param usePAM Use PAM for substitution
+	 * @param gapCosts Gap costs for the calculation
+	 * @param useProfiles Merge two subtrees by aligning their profiles,
+	 * otherwise by aligning their closest pair of leaves
+	 * @param parallelSize Smallest number of leaves of a subtree whose halves
+	 * are aligned in parallel
+	 * @param pool The pool the subtrees run on
+	 */
+	void align(final boolean usePAM, final double gapCosts, boolean useProfiles, 
+			final int parallelSize, ForkJoinPool pool) {
+		if(parallelSize < 2) throw new IllegalArgumentException("Parallel subtrees need at least 2 leaves!");
+		index();
+		final DistanceStore store;
+		final ProfileAligner profiles;
+		if(useProfiles) {
+			store = null;
+			profiles = new ProfileAligner(new SubstitutionMatrix(usePAM, gapCosts), gapCosts);
+		} else {
+			if(distances == null) {
+				EncodedSequence[] encoded = new EncodedSequence[order.length];
+				for(int i = 0; i < order.length; i++)
+					encoded[order[i].c] = new EncodedSequence(order[i].s);
+				distances = new DistanceStore(encoded, usePAM, gapCosts, null);
+			}
+			store = distances;
+			profiles = null;
+		}
+		if(size() < parallelSize) align(store, profiles, usePAM, gapCosts, parallelSize);
+		else pool.invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+			protected void compute() {
+				align(store, profiles, usePAM, gapCosts, parallelSize);
+			}
+		});
+	}
+	
+	/** Recursively aligns the nodes of an indexed tree. The gaps of a merge
+	 * are located once and inserted into every leaf in a single pass.
+	 * @param store Distances of all sequences, for merges by the closest pair
+	 * @param profiles Aligner for merges by profiles, null for the closest pair
+	 * @param usePAM Use PAM for substitution
+	 * @param gapCosts Gap costs for the calculation
+	 * @param parallelSize Smallest subtree whose halves are aligned in parallel
+	 */
+	private void align(final DistanceStore store, final ProfileAligner profiles, 
+			final boolean usePAM, final double gapCosts, final int parallelSize) {
 		if(isLeaf()) return;
 
-		left.align(usePAM, gapCosts);		// RECURSION
-		right.align(usePAM, gapCosts);
-		
-		double dist;
-		double min = Double.POSITIVE_INFINITY;
-		int xMin = 0; int yMin = 0;
-		for(int x = 0; x < left.size(); x++) {
-			for(int y = 0; y < right.size(); y++) {
-				dist = left.getLeaves().get(x).distance(right.getLeaves().get(y), weighted, usePAM, gapCosts);
-				if(min > dist) {
-					min = dist; xMin = x; yMin = y;
+		if(size() >= parallelSize) {		// RECURSION, the left half on another worker
+			RecursiveAction task = new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+				protected void compute() {
+					left.align(store, profiles, usePAM, gapCosts, parallelSize);
 				}
-			}
+			};
+			task.fork();
+			right.align(store, profiles, usePAM, gapCosts, parallelSize);
+			task.join();
+		} else {
+			left.align(store, profiles, usePAM, gapCosts, parallelSize);		// RECURSION
+			right.align(store, profiles, usePAM, gapCosts, parallelSize);
+		}
+		
+		int[] leftGaps, rightGaps;
+		if(profiles != null) {
+			String[] rows1 = new String[left.size()], rows2 = new String[right.size()];
+			for(int x = left.first; x < left.last; x++) rows1[x - left.first] = order[x].s;
+			for(int y = right.first; y < right.last; y++) rows2[y - right.first] = order[y].s;
+			int[][] gaps = profiles.align(rows1, rows2);
+			leftGaps = gaps[0]; rightGaps = gaps[1];
+		} else {
+			int[] pair = store.closestPair(order, left.first, left.last, right.first, right.last);
+			Alignment algn = new Alignment(new NeedlemanWunsch().getAlignment(order[pair[0]].s, order[pair[1]].s, usePAM, gapCosts));;
+			leftGaps = gapPositions(algn.getSeq(0));
+			rightGaps = gapPositions(algn.getSeq(1));
 		}
-		Alignment algn = new Alignment(new NeedlemanWunsch().getAlignment(left.getLeaves().get(xMin).s, right.getLeaves().get(yMin).s, usePAM, gapCosts));;
-		for(int i = 0; i < algn.getSeq(0).length(); i++)
-			for(int j = 0; j < left.size(); j++)
-				if(algn.getSeq(0).charAt(i) == '_')
-					if(i == 0) left.getLeaves().get(j).s = "-"+left.getLeaves().get(j).s;
-					else if(left.getLeaves().get(j).s.length() > i)
-						left.getLeaves().get(j).s = left.getLeaves().get(j).s.substring(0, i) + "-" + left.getLeaves().get(j).s.substring(i, left.getLeaves().get(j).s.length());
-					else left.getLeaves().get(j).s = left.getLeaves().get(j).s+"-";
-		for(int i = 0; i < algn.getSeq(1).length(); i++)
-			for(int j = 0; j < right.size(); j++)
-				if(algn.getSeq(1).charAt(i) == '_')
-					if(i == 0) right.getLeaves().get(j).s = "-"+right.getLeaves().get(j).s;
-					else if(right.getLeaves().get(j).s.length() > i)
-						right.getLeaves().get(j).s = right.getLeaves().get(j).s.substring(0, i) + "-" + right.getLeaves().get(j).s.substring(i, right.getLeaves().get(j).s.length());
-					else right.getLeaves().get(j).s = right.getLeaves().get(j).s+"-";
+		for(int j = left.first; j < left.last; j++)
+			order[j].s = insertGaps(order[j].s, leftGaps);
+		for(int j = right.first; j < right.last; j++)
+			order[j].s = insertGaps(order[j].s, rightGaps);
+	}
+	
+	/** Finds the gaps the pairwise alignment inserted into a sequence, all
+	 * leaves of that side receive them at the same positions
+	 * @param row Row of the pairwise alignment
+	 * @return Ascending positions in the sequence without the new gaps, a gap
+	 * is inserted in front of each, as in AlignmentMatrix.insertGapColumns
+	 */
+	static int[] gapPositions(String row) {
+		int count = 0;
+		for(int i = 0; i < row.length(); i++) if(row.charAt(i) == '_') count++;
+		int[] positions = new int[count];
+		for(int i = 0, k = 0; i < row.length(); i++)
+			if(row.charAt(i) == '_') { positions[k] = i - k; k++; }
+		return positions;
+	}
+	
+	/** Inserts gaps into a sequence in one pass
+	 * @param s The sequence
+	 * @param positions Ascending positions from gapPositions
+	 * @return The sequence with a '-' in front of every position
+	 */
+	static String insertGaps(String s, int[] positions) {
+		if(positions.length == 0) return s;
+		char[] gapped = new char[s.length() + positions.length];
+		int from = 0, to = 0;
+		for(int k = 0; k < positions.length; k++) {
+			s.getChars(from, positions[k], gapped, to);
+			to += positions[k] - from;
+			from = positions[k];
+			gapped[to++] = '-';
+		}
+		s.getChars(from, s.length(), gapped, to);
+		return new String(gapped);
 	}
 	
 	/** Generates an Alignment according to the trees ranking
@@ -104,34 +195,38 @@ public class Cluster {
 	 */
 	public Alignment generateAlignment(Alignment algn) {
 		if(size() != algn.size()) throw new IllegalArgumentException("Cannot generate alignment if tree and alignment do not have the same size!");
-		for(int i = 0; i < left.size(); i++)
-			algn.setSeq(left.getLeaves().get(i).c, left.getLeaves().get(i).s);
-		for(int i = 0; i < right.size(); i++)
-			algn.setSeq(right.getLeaves().get(i).c, right.getLeaves().get(i).s);
+		index();
+		for(int i = first; i < last; i++)
+			algn.setSeq(order[i].c, order[i].s);
 		return algn;
 	}
 
-	/** Returns all leaf nodes from the tree
-	 * @return A List of the nodes
+	/** Lists all leaves of the tree in one array once, every node keeps the
+	 * range of its own leaves in it
 	 */
-	private LinkedList<Cluster> getLeaves() {
-		LinkedList<Cluster> leaves = new LinkedList<Cluster>();
-		if(isLeaf()) {
-			leaves.add(this);
-			return leaves;
-		}
-		
-		for(int i = 0; i < left.size(); i++)
-			leaves.add(left.getLeaves().get(i));
-		for(int i = 0; i < right.size(); i++)
-			leaves.add(right.getLeaves().get(i));
-		return leaves;
+	private void index() {
+		if(order == null) index(new Cluster[size()], 0);
+	}
+	
+	/** Writes the leaves of this node into the order
+	 * @param order The array of all leaves
+	 * @param pos Position of the first leaf of this node
+	 * @return Position behind the last leaf of this node
+	 */
+	private int index(Cluster[] order, int pos) {
+		this.order = order;
+		first = pos;
+		if(isLeaf()) order[pos++] = this;
+		else pos = right.index(order, left.index(order, pos));
+		last = pos;
+		return pos;
 	}
 
 	/** Returns the numer of trees in this tree
 	 * @return Number of leaf nodes
 	 */
 	int size() {
+		if(order != null) return last - first;
 		if(isLeaf()) return 1;
 		return left.size() + right.size();
 	}
@@ -1,35 +1,14 @@
 package cthoelken;
 
-import java.security.InvalidParameterException;
-import java.util.Arrays;
-
-/** Auxilliary class to store the computed values for two or three sequences
+/** Auxilliary class to store the computed values for two or three sequences.
+ * The values are kept in one flat primitive array per matrix, see
+ * CostMatrix2D and CostMatrix3D.
  * @author Clemens Thoelken
  *
  */
-public class CostMatrix {
-	
-	private double[][][] m;
-
-	/** Constructor for three sequences
-	 * @param xLength Length of sequence 1
-	 * @param yLength Length of sequence 2
-	 * @param zLength Length of sequence 3
-	 */
-	CostMatrix(int xLength, int yLength, int zLength) {
-		if(xLength < 1 || yLength < 1 || zLength < 1) 
-			throw new InvalidParameterException("Sequence length not feasable!");
-		m = new double[xLength][yLength][zLength];
-		m[0][0][0] = 0.0;
-	}
+public abstract class CostMatrix {
 	
-	/** Constructor for two sequences
-	 * @param xLength Length of sequence 1
-	 * @param yLength Length of sequence 2
-	 */
-	CostMatrix(int xLength, int yLength) {
-		this(xLength, yLength, 1);
-	}
+	byte[] pointers;	// predecessor bits per cell in the layout of the values
 	
 	/**
 	 * Get the costs at the point x, y
@@ -42,25 +21,20 @@ public class CostMatrix {
 	}
 	
 	/**
-	 * Get the costs at the point x, y, z
+	 * Get the costs at the point x, y, z. Coordinates from -1 up to the
+	 * length of each dimension are allowed and lie on the border, which
+	 * always holds NEGATIVE_INFINITY.
 	 * @param x Position in sequence 1
 	 * @param y Position in sequence 2
 	 * @param z Position in sequence 2
 	 * @return Costs
 	 */
-	public double get(int x, int y, int z) {
-		if(x < 0 || y < 0 || z < 0 || 
-				x >= m.length || y >= m[0].length || z >= m[0][0].length) 
-			return Double.NEGATIVE_INFINITY;
-		return m[x][y][z];
-	}
+	public abstract double get(int x, int y, int z);
 	
 	/** Returns the computed score for the alignment
 	 * @return Final Score
 	 */
-	public double score() {
-		return m[m.length-1][m[0].length-1][m[0][0].length-1];
-	}
+	public abstract double score();
 	
 	/** Set a Value at x, y
 	 * @param x X coordinate
@@ -78,21 +52,29 @@ public class CostMatrix {
 	 * @param z Position in sequence 3
 	 * @param value Value that should be inserted
 	 */
-	public void set(int x, int y, int z, double value) {
-		if(x < 0 || y < 0 || z < 0 || 
-				x >= m.length || y >= m[0].length || z >= m[0][0].length)
-			throw new InvalidParameterException("Index not feasable! x="+x+" y="+y+" z="+z);
-		m[x][y][z] = new Double(value);
-	}
+	public abstract void set(int x, int y, int z, double value);
 	
-	/* (non-Javadoc)
-	 * @see java.lang.Object#toString()
+	/** Allocates one byte per cell for the predecessors of the optimal
+	 * scores, which the fill records as bits
 	 */
-	public String toString() {
-		String retVal = "";
-		for(int i=0; i<m.length; i++)
-			retVal += Arrays.toString(m[i]) + "\n";
-		return retVal;
+	abstract void recordPointers();
+	
+	/** Get the predecessor bits recorded for the point x, y, z during the fill
+	 * @param x Position in sequence 1
+	 * @param y Position in sequence 2
+	 * @param z Position in sequence 3
+	 * @return Bits of the optimal predecessors, their meaning depends on the algorithm
+	 */
+	public int getPointers(int x, int y, int z) {
+		return pointers[index(x, y, z)];
 	}
 	
+	/** Computes the position of x, y, z in the flat array of the values
+	 * @param x Position in sequence 1
+	 * @param y Position in sequence 2
+	 * @param z Position in sequence 3
+	 * @return Index in the values and the pointers
+	 */
+	abstract int index(int x, int y, int z);
+	
 }
@@ -0,0 +1,95 @@
+package cthoelken;
+
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+
+/** Cost matrix for two sequences, stored row-major in one flat array. An
+ * extra border row and column of NEGATIVE_INFINITY surround the matrix, so
+ * the dynamic programming may read its neighbours without any range checks.
+ * @author Clemens Thoelken
+ *
+ */
+public class CostMatrix2D extends CostMatrix {
+	
+	final double[] cells;	// values including the border
+	final int stride;		// distance between two rows in cells
+	final int xLength;
+	final int yLength;
+
+	/** Constructor for two sequences
+	 * @param xLength Length of sequence 1
+	 * @param yLength Length of sequence 2
+	 */
+	CostMatrix2D(int xLength, int yLength) {
+		if(xLength < 1 || yLength < 1) 
+			throw new InvalidParameterException("Sequence length not feasable!");
+		this.xLength = xLength; this.yLength = yLength;
+		stride = yLength + 1;
+		// border row above and below, border column left of every row
+		cells = new double[(xLength + 2) * stride + 1];
+		Arrays.fill(cells, Double.NEGATIVE_INFINITY);
+		for(int x = 0; x < xLength; x++)
+			Arrays.fill(cells, index(x, 0), index(x, yLength), 0.0);
+	}
+	
+	/** Computes the position of x, y in the flat array
+	 * @param x Position in sequence 1
+	 * @param y Position in sequence 2
+	 * @return Index in cells
+	 */
+	final int index(int x, int y) {
+		return (x + 1) * stride + y + 1;
+	}
+	
+	@Override
+	public double get(int x, int y) {
+		return cells[(x + 1) * stride + y + 1];
+	}
+	
+	@Override
+	public double get(int x, int y, int z) {
+		if(z != 0) return Double.NEGATIVE_INFINITY;
+		return get(x, y);
+	}
+	
+	@Override
+	final int index(int x, int y, int z) {
+		return index(x, y);
+	}
+	
+	@Override
+	void recordPointers() {
+		pointers = new byte[cells.length];
+	}
+	
+	@Override
+	public double score() {
+		return cells[index(xLength-1, yLength-1)];
+	}
+	
+	@Override
+	public void set(int x, int y, double value) {
+		if(x < 0 || y < 0 || x >= xLength || y >= yLength)
+			throw new InvalidParameterException("Index not feasable! x="+x+" y="+y);
+		cells[index(x, y)] = value;
+	}
+	
+	@Override
+	public void set(int x, int y, int z, double value) {
+		if(z != 0)
+			throw new InvalidParameterException("Index not feasable! x="+x+" y="+y+" z="+z);
+		set(x, y, value);
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		StringBuilder retVal = new StringBuilder();
+		for(int x = 0; x < xLength; x++)
+			retVal.append(Arrays.toString(Arrays.copyOfRange(cells, index(x, 0), 
+					index(x, yLength)))).append("\n");
+		return retVal.toString();
+	}
+	
+}
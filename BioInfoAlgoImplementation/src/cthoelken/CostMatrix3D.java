@@ -0,0 +1,85 @@
+package cthoelken;
+
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+
+/** Cost matrix for three sequences, stored in one flat array with z running
+ * fastest. Like CostMatrix2D it is surrounded by a border of
+ * NEGATIVE_INFINITY, so neighbours can be read without range checks.
+ * @author Clemens Thoelken
+ *
+ */
+public class CostMatrix3D extends CostMatrix {
+	
+	final double[] cells;	// values including the border
+	final int strideX;		// distance between two x-planes in cells
+	final int strideY;		// distance between two y-rows in cells
+	final int xLength;
+	final int yLength;
+	final int zLength;
+
+	/** Constructor for three sequences
+	 * @param xLength Length of sequence 1
+	 * @param yLength Length of sequence 2
+	 * @param zLength Length of sequence 3
+	 */
+	CostMatrix3D(int xLength, int yLength, int zLength) {
+		if(xLength < 1 || yLength < 1 || zLength < 1) 
+			throw new InvalidParameterException("Sequence length not feasable!");
+		this.xLength = xLength; this.yLength = yLength; this.zLength = zLength;
+		strideY = zLength + 1;
+		strideX = (yLength + 1) * strideY;
+		cells = new double[(xLength + 2) * strideX + strideY + 1];
+		Arrays.fill(cells, Double.NEGATIVE_INFINITY);
+		for(int x = 0; x < xLength; x++)
+			for(int y = 0; y < yLength; y++)
+				Arrays.fill(cells, index(x, y, 0), index(x, y, zLength), 0.0);
+	}
+	
+	/** Computes the position of x, y, z in the flat array
+	 * @param x Position in sequence 1
+	 * @param y Position in sequence 2
+	 * @param z Position in sequence 3
+	 * @return Index in cells
+	 */
+	final int index(int x, int y, int z) {
+		return (x + 1) * strideX + (y + 1) * strideY + z + 1;
+	}
+	
+	@Override
+	public double get(int x, int y, int z) {
+		return cells[(x + 1) * strideX + (y + 1) * strideY + z + 1];
+	}
+	
+	@Override
+	void recordPointers() {
+		pointers = new byte[cells.length];
+	}
+	
+	@Override
+	public double score() {
+		return cells[index(xLength-1, yLength-1, zLength-1)];
+	}
+	
+	@Override
+	public void set(int x, int y, int z, double value) {
+		if(x < 0 || y < 0 || z < 0 || x >= xLength || y >= yLength || z >= zLength)
+			throw new InvalidParameterException("Index not feasable! x="+x+" y="+y+" z="+z);
+		cells[index(x, y, z)] = value;
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		StringBuilder retVal = new StringBuilder();
+		for(int x = 0; x < xLength; x++) {
+			for(int y = 0; y < yLength; y++)
+				retVal.append(Arrays.toString(Arrays.copyOfRange(cells, index(x, y, 0),
+						index(x, y, zLength)))).append(" ");
+			retVal.append("\n");
+		}
+		return retVal.toString();
+	}
+	
+}
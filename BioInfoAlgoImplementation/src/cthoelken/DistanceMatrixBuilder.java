@@ -0,0 +1,276 @@
+package cthoelken;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Computes the distances of all pairs of sequences, the negative
+ * Needleman-Wunsch scores, in parallel. The upper triangle of the matrix is
+ * cut into square tiles, every tile is one task on a ForkJoinPool, so idle
+ * workers steal the remaining tiles and the load stays balanced although the
+ * tiles on the diagonal only hold half the pairs. Within a tile the same
+ * sequences are aligned again and again, which keeps them in the cache. Every
+ * worker thread keeps its own NeedlemanWunsch, whose rows and profiles are
+ * reused for all pairs it scores.
+ *
+ * With integral costs the sequences are sorted by length, so a tile holds
+ * sequences of similar lengths, and the columns of a tile become one batch
+ * of BatchNeedlemanWunsch. Every row sequence of the tile is aligned against
+ * all of them in lockstep, on the vector units of the processor.
+ *
+ * With a KmerDistance set the alignments are skipped, every sequence is
+ * turned into its k-mer profile once and the pairs are compared by their
+ * profiles instead, in O(L) per pair.
+ *
+ * @author Clemens Thoelken
+ *
+ */
+public class DistanceMatrixBuilder {
+
+	/** Receives the progress of a running build. Calls may come from several
+	 * threads at the same time.
+	 */
+	public interface Progress {
+		/** Called after every finished tile
+		 * @param done Number of pairs scored so far
+		 * @param total Number of pairs in total
+		 */
+		void update(long done, long total);
+	}
+
+	private boolean usePAM;
+	private double gapCosts;
+	private int tileSize = 64;				// edge length of the tiles, also lanes of a batch
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+	private Progress progress;
+	private KmerDistance kmers;				// alignment-free distances, null for alignments
+
+	// one aligner per worker thread, its workspace is reused for every pair
+	private final ThreadLocal<NeedlemanWunsch> aligners = new ThreadLocal<NeedlemanWunsch>() {
+		protected NeedlemanWunsch initialValue() {
+			return new NeedlemanWunsch();
+		}
+	};
+
+	/** Constructor
+	 * @param usePAM Use PAM for substitution
+	 * @param gapCosts Gap costs for the alignments
+	 */
+	public DistanceMatrixBuilder(boolean usePAM, double gapCosts) {
+		this.usePAM = usePAM;
+		this.gapCosts = gapCosts;
+	}
+
+	/** Sets the edge length of the tiles
+	 * @param size Number of sequences per tile edge, at least 1
+	 * @return This builder
+	 */
+	public DistanceMatrixBuilder setTileSize(int size) {
+		if(size < 1) throw new IllegalArgumentException("Tile size must be positive!");
+		tileSize = size;
+		return this;
+	}
+
+	/** Sets the pool the tiles run on, the common pool by default
+	 * @param pool The pool
+	 * @return This builder
+	 */
+	public DistanceMatrixBuilder setPool(ForkJoinPool pool) {
+		this.pool = pool;
+		return this;
+	}
+
+	/** Sets the receiver of the progress
+	 * @param progress The receiver, null for none
+	 * @return This builder
+	 */
+	public DistanceMatrixBuilder setProgress(Progress progress) {
+		this.progress = progress;
+		return this;
+	}
+
+	/** Sets the k-mer distance which replaces the alignment scores
+	 * @param kmers The k-mer distance, null to align the pairs
+	 * @return This builder
+	 */
+	public DistanceMatrixBuilder setKmers(KmerDistance kmers) {
+		this.kmers = kmers;
+		return this;
+	}
+
+	/** Computes the symmetric distance matrix of the sequences. Every row is
+	 * an array of its own, so the matrix is not limited to 2^31 entries.
+	 * @param sequences The encoded sequences
+	 * @return The n rows of n distances, the negative score or the k-mer
+	 * distance of sequence i and j at [i][j] and [j][i], 0 on the diagonal
+	 */
+	public double[][] build(final EncodedSequence[] sequences) {
+		final int n = sequences.length;
+		final double[][] D = new double[n][n];
+		final long total = (long) n * (n - 1) / 2;
+		final AtomicLong done = new AtomicLong();
+		if(kmers == null) {
+			int max = 0;
+			for(int i = 0; i < n; i++) max = Math.max(max, sequences[i].length());
+			SubstitutionMatrix omega = new SubstitutionMatrix(usePAM, gapCosts);
+			if(BatchNeedlemanWunsch.isFeasable(omega, gapCosts, 2 * max)) {
+				buildBatches(sequences, omega, D, done, total);
+				return D;
+			}
+		}
+		final long[][] profiles = profiles(sequences);
+		List<RecursiveAction> tiles = new ArrayList<RecursiveAction>();
+
+		for(int i = 0; i < n; i += tileSize) {
+			for(int j = i; j < n; j += tileSize) {
+				final int rowFrom = i, rowTo = Math.min(i + tileSize, n);
+				final int colFrom = j, colTo = Math.min(j + tileSize, n);
+				tiles.add(new RecursiveAction() {
+					private static final long serialVersionUID = 1L;
+					protected void compute() {
+						NeedlemanWunsch nw = aligners.get();
+						long pairs = 0;
+						for(int x = rowFrom; x < rowTo; x++) {
+							for(int y = Math.max(colFrom, x + 1); y < colTo; y++) {
+								double dist = distance(nw, sequences, profiles, x, y);
+								D[x][y] = dist; D[y][x] = dist;
+								pairs++;
+							}
+						}
+						long sum = done.addAndGet(pairs);
+						if(progress != null) progress.update(sum, total);
+					}
+				});
+			}
+		}
+		invoke(tiles);
+		return D;
+	}
+
+	/** Computes the distances of all pairs by batches, one per tile
+	 * @param sequences The encoded sequences
+	 * @param omega Integral substitution matrix
+	 * @param D Receives the distances
+	 * @param done Counter of the scored pairs
+	 * @param total Number of pairs in total
+	 */
+	private void buildBatches(final EncodedSequence[] sequences, final SubstitutionMatrix omega,
+			final double[][] D, final AtomicLong done, final long total) {
+		final int n = sequences.length;
+		// sorted by length, a batch pads its sequences to the longest one
+		long[] byLength = new long[n];
+		for(int i = 0; i < n; i++) byLength[i] = ((long) sequences[i].length() << 32) | i;
+		Arrays.sort(byLength);
+		final int[] sorted = new int[n];
+		for(int i = 0; i < n; i++) sorted[i] = (int) byLength[i];
+		List<RecursiveAction> tiles = new ArrayList<RecursiveAction>();
+
+		for(int i = 0; i < n; i += tileSize) {
+			for(int j = i; j < n; j += tileSize) {
+				final int rowFrom = i, rowTo = Math.min(i + tileSize, n);
+				final int colFrom = j, colTo = Math.min(j + tileSize, n);
+				tiles.add(new RecursiveAction() {
+					private static final long serialVersionUID = 1L;
+					protected void compute() {
+						EncodedSequence[] batch = new EncodedSequence[colTo - colFrom];
+						for(int y = colFrom; y < colTo; y++) batch[y - colFrom] = sequences[sorted[y]];
+						BatchNeedlemanWunsch aligner = new BatchNeedlemanWunsch(omega, (int) gapCosts, batch);
+						long pairs = 0;
+						for(int x = rowFrom; x < rowTo; x++) {
+							if(x + 1 >= colTo) continue;
+							int[] scores = aligner.score(sequences[sorted[x]]);
+							for(int y = Math.max(colFrom, x + 1); y < colTo; y++) {
+								D[sorted[x]][sorted[y]] = -scores[y - colFrom];
+								D[sorted[y]][sorted[x]] = -scores[y - colFrom];
+								pairs++;
+							}
+						}
+						long sum = done.addAndGet(pairs);
+						if(progress != null) progress.update(sum, total);
+					}
+				});
+			}
+		}
+		invoke(tiles);
+	}
+
+	/** Computes the distances of all sequences to a few seed sequences only,
+	 * so the memory stays linear in the number of sequences
+	 * @param sequences The encoded sequences
+	 * @param seeds Indices of the seed sequences
+	 * @return Row after row the n*t distances, the distance of sequence i to
+	 * seed s at i*t+s
+	 */
+	public double[] build(final EncodedSequence[] sequences, final int[] seeds) {
+		final int n = sequences.length, t = seeds.length;
+		if((long) n * t > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Too many sequences for one distance matrix!");
+		final double[] D = new double[n * t];
+		final long total = (long) n * t;
+		final AtomicLong done = new AtomicLong();
+		final long[][] profiles = profiles(sequences);
+		List<RecursiveAction> tiles = new ArrayList<RecursiveAction>();
+
+		for(int i = 0; i < n; i += tileSize) {
+			final int rowFrom = i, rowTo = Math.min(i + tileSize, n);
+			tiles.add(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+				protected void compute() {
+					NeedlemanWunsch nw = aligners.get();
+					for(int x = rowFrom; x < rowTo; x++)
+						for(int s = 0; s < t; s++)
+							D[x * t + s] = (x == seeds[s]) ? 0
+									: distance(nw, sequences, profiles, x, seeds[s]);
+					long sum = done.addAndGet((long) (rowTo - rowFrom) * t);
+					if(progress != null) progress.update(sum, total);
+				}
+			});
+		}
+		invoke(tiles);
+		return D;
+	}
+
+	/** Builds the k-mer profiles of all sequences
+	 * @param sequences The encoded sequences
+	 * @return The profiles, null if the pairs are aligned
+	 */
+	private long[][] profiles(EncodedSequence[] sequences) {
+		if(kmers == null) return null;
+		long[][] profiles = new long[sequences.length][];
+		for(int i = 0; i < sequences.length; i++) profiles[i] = kmers.profile(sequences[i]);
+		return profiles;
+	}
+
+	/** Computes the distance of one pair
+	 * @param nw The aligner of the current thread
+	 * @param sequences The encoded sequences
+	 * @param profiles The k-mer profiles, null to align
+	 * @param x Index of the first sequence
+	 * @param y Index of the second sequence
+	 * @return The k-mer distance or the negative score
+	 */
+	private double distance(NeedlemanWunsch nw, EncodedSequence[] sequences, long[][] profiles, int x, int y) {
+		if(profiles != null) return kmers.distance(profiles[x], profiles[y]);
+		return -nw.getScore(sequences[x], sequences[y], usePAM, gapCosts);
+	}
+
+	/** Runs the tiles on the pool
+	 * @param tiles The tiles
+	 */
+	private void invoke(final List<RecursiveAction> tiles) {
+		if(tiles.size() == 1) tiles.get(0).invoke();
+		else if(tiles.size() > 1) {
+			pool.invoke(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+				protected void compute() {
+					ForkJoinTask.invokeAll(tiles);
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,195 @@
+package cthoelken;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Distances of the sequence pairs, shared by the guide tree and the
+ * progressive alignment along it. The matrix the tree was built from is
+ * shared, the clustering only overwrites its lower triangle, so the upper
+ * triangle still holds the distances of the sequences and the alignment
+ * does not score those pairs again. Without them a pair is computed when
+ * asked for, with the same measure as the tree.
+ *
+ * Trees of a seed embedding only know the distances within their blocks,
+ * the store keeps the matrix of every block. Two groups from different
+ * blocks are represented by the pair closest in the embedding, so a merge
+ * costs time linear in the size of the groups instead of their product.
+ *
+ * @author Clemens Thoelken
+ *
+ */
+class DistanceStore {
+
+	private EncodedSequence[] sequences;
+	private boolean usePAM;
+	private double gapCosts;
+	private KmerDistance kmers;		// alignment-free distances, null to align
+	private long[][] profiles;		// k-mer profiles per sequence
+	private double[][] known;		// upper triangle of the shared matrix, null if unknown
+	private int[] blockOf;			// per sequence its block, -1 for none, null without blocks
+	private int[] localOf;			// per sequence its index within the block
+	private ArrayList<double[][]> blocks;	// upper triangles of the block matrices
+	private double[] vectors;		// row after row the distances to the seeds
+	private int t;					// number of seeds
+
+	// one aligner per thread, its workspace is reused for every pair
+	private final ThreadLocal<NeedlemanWunsch> aligners = new ThreadLocal<NeedlemanWunsch>() {
+		protected NeedlemanWunsch initialValue() {
+			return new NeedlemanWunsch();
+		}
+	};
+
+	/** Constructor for distances computed on demand
+	 * @param sequences The encoded sequences
+	 * @param usePAM Use PAM for substitution
+	 * @param gapCosts Gap costs for the alignments
+	 * @param kmers The k-mer distance, null to align the pairs
+	 */
+	DistanceStore(EncodedSequence[] sequences, boolean usePAM, double gapCosts, KmerDistance kmers) {
+		this.sequences = sequences;
+		this.usePAM = usePAM;
+		this.gapCosts = gapCosts;
+		this.kmers = kmers;
+		if(kmers != null) {
+			profiles = new long[sequences.length][];
+			for(int i = 0; i < sequences.length; i++) profiles[i] = kmers.profile(sequences[i]);
+		}
+	}
+
+	/** Keeps the distances of a matrix without copying them
+	 * @param D The n rows of n distances, only the upper triangle is read
+	 * @return This store
+	 */
+	DistanceStore keep(double[][] D) {
+		if(D.length != sequences.length)
+			throw new IllegalArgumentException("Distance matrix does not have n rows!");
+		known = D;
+		profiles = null;
+		return this;
+	}
+
+	/** Keeps the distances within a block of sequences without copying them
+	 * @param members Indices of the sequences of the block
+	 * @param D The rows of their distances, only the upper triangle is read
+	 * @return This store
+	 */
+	DistanceStore keep(int[] members, double[][] D) {
+		if(D.length != members.length)
+			throw new IllegalArgumentException("Distance matrix does not have a row per member!");
+		if(blockOf == null) {
+			blockOf = new int[sequences.length];
+			localOf = new int[sequences.length];
+			Arrays.fill(blockOf, -1);
+			blocks = new ArrayList<double[][]>();
+		}
+		for(int k = 0; k < members.length; k++) {
+			blockOf[members[k]] = blocks.size();
+			localOf[members[k]] = k;
+		}
+		blocks.add(D);
+		return this;
+	}
+
+	/** Keeps the seed vectors to choose the pair of two groups from
+	 * different blocks
+	 * @param vectors Row after row the distances of every sequence to the seeds
+	 * @param t Number of seeds
+	 * @return This store
+	 */
+	DistanceStore embed(double[] vectors, int t) {
+		if(vectors.length != sequences.length * t)
+			throw new IllegalArgumentException("Seed vectors do not have n*t entries!");
+		this.vectors = vectors;
+		this.t = t;
+		return this;
+	}
+
+	/** Returns the distance of two sequences
+	 * @param i Index of the first sequence
+	 * @param j Index of the second sequence
+	 * @return The distance, 0 for i == j
+	 */
+	double get(int i, int j) {
+		if(i == j) return 0;
+		if(i > j) { int swap = i; i = j; j = swap; }
+		if(known != null) return known[i][j];
+		if(blockOf != null && blockOf[i] >= 0 && blockOf[i] == blockOf[j]) {
+			int li = localOf[i], lj = localOf[j];
+			return blocks.get(blockOf[i])[Math.min(li, lj)][Math.max(li, lj)];
+		}
+		if(profiles != null) return kmers.distance(profiles[i], profiles[j]);
+		return -aligners.get().getScore(sequences[i], sequences[j], usePAM, gapCosts);
+	}
+
+	/** Finds the pair of sequences to align when two groups are merged, the
+	 * closest pair, or with seed vectors for groups from different blocks
+	 * the member of the first group nearest to the centre of the second one
+	 * and the member of the second group nearest to that.
+	 * @param order The leaves of the tree
+	 * @param from1 Position of the first leaf of the first group
+	 * @param to1 Position behind its last leaf
+	 * @param from2 Position of the first leaf of the second group
+	 * @param to2 Position behind its last leaf
+	 * @return Positions of the two leaves in the order
+	 */
+	int[] closestPair(Cluster[] order, int from1, int to1, int from2, int to2) {
+		if(vectors != null && !(sameBlock(order, from1, to1, order[from1].c)
+				&& sameBlock(order, from2, to2, order[from1].c))) {
+			double[] centre = new double[t];
+			for(int y = from2; y < to2; y++)
+				for(int s = 0, row = order[y].c * t; s < t; s++) centre[s] += vectors[row + s];
+			for(int s = 0; s < t; s++) centre[s] /= (to2 - from2);
+			int xMin = nearest(order, from1, to1, centre);
+			System.arraycopy(vectors, order[xMin].c * t, centre, 0, t);
+			return new int[] {xMin, nearest(order, from2, to2, centre)};
+		}
+		double dist;
+		double min = Double.POSITIVE_INFINITY;
+		int xMin = from1; int yMin = from2;
+		for(int x = from1; x < to1; x++) {
+			for(int y = from2; y < to2; y++) {
+				dist = get(order[x].c, order[y].c);
+				if(min > dist) {
+					min = dist; xMin = x; yMin = y;
+				}
+			}
+		}
+		return new int[] {xMin, yMin};
+	}
+
+	/** Checks whether all leaves of a range belong to the block of a sequence
+	 * @param order The leaves of the tree
+	 * @param from Position of the first leaf
+	 * @param to Position behind the last leaf
+	 * @param i Index of the sequence
+	 * @return TRUE if the sequence and all leaves are in one known block
+	 */
+	private boolean sameBlock(Cluster[] order, int from, int to, int i) {
+		if(blockOf == null || blockOf[i] < 0) return false;
+		for(int x = from; x < to; x++)
+			if(blockOf[order[x].c] != blockOf[i]) return false;
+		return true;
+	}
+
+	/** Finds the leaf of a range whose seed vector is nearest to a point
+	 * @param order The leaves of the tree
+	 * @param from Position of the first leaf
+	 * @param to Position behind the last leaf
+	 * @param point The point
+	 * @return Position of the leaf in the order
+	 */
+	private int nearest(Cluster[] order, int from, int to, double[] point) {
+		int best = from;
+		double min = Double.POSITIVE_INFINITY;
+		for(int x = from; x < to; x++) {
+			double sum = 0;
+			for(int s = 0, row = order[x].c * t; s < t; s++) {
+				double diff = vectors[row + s] - point[s];
+				sum += diff * diff;
+			}
+			if(sum < min) { min = sum; best = x; }
+		}
+		return best;
+	}
+}
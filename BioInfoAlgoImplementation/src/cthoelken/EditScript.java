@@ -0,0 +1,169 @@
+package cthoelken;
+
+import java.util.Arrays;
+
+/**
+ * Compact result of a pairwise alignment. Instead of two padded strings it
+ * keeps references to the unaligned sequences, the start offsets and the
+ * run length encoded edit operations, similar to a CIGAR string. The
+ * alignment strings are only rendered on demand by toAlignment(), so many
+ * results can be stored at a few bytes per gap or mismatch.
+ *
+ * Sequence 1 is taken as the reference: INSERT consumes a symbol of
+ * sequence 2 only, DELETE a symbol of sequence 1 only.
+ *
+ * @author Clemens Thoelken
+ *
+ */
+public class EditScript {
+
+	public static final char MATCH = '=';
+	public static final char MISMATCH = 'X';
+	public static final char INSERT = 'I';
+	public static final char DELETE = 'D';
+
+	private final String seq1;	// unaligned sequence 1
+	private final String seq2;	// unaligned sequence 2
+	private final int start1;	// first aligned position in sequence 1
+	private final int start2;	// first aligned position in sequence 2
+	private char[] ops = new char[4];	// operation of every run
+	private int[] runs = new int[4];	// length of every run
+	private int size;			// number of runs
+	public double score;
+
+	/** Constructor for an empty script
+	 * @param seq1 Unaligned sequence 1
+	 * @param seq2 Unaligned sequence 2
+	 * @param start1 First aligned position in sequence 1
+	 * @param start2 First aligned position in sequence 2
+	 */
+	EditScript(String seq1, String seq2, int start1, int start2) {
+		if(start1 < 0 || start1 > seq1.length() || start2 < 0 || start2 > seq2.length())
+			throw new IllegalArgumentException("Start offset out of bounds!");
+		this.seq1 = seq1; this.seq2 = seq2;
+		this.start1 = start1; this.start2 = start2;
+	}
+
+	/** Determines the operation of a column that consumes a symbol of both
+	 * sequences, gaps are known from the path and never read from symbols
+	 * @param a Symbol of sequence 1
+	 * @param b Symbol of sequence 2
+	 * @return MATCH or MISMATCH
+	 */
+	static char substitution(char a, char b) {
+		return (Character.toUpperCase(a) == Character.toUpperCase(b)) ? MATCH : MISMATCH;
+	}
+
+	/** Appends operations to the end of the script, extending the last run
+	 * if it has the same operation
+	 * @param op The edit operation
+	 * @param count Number of columns
+	 */
+	void append(char op, int count) {
+		if(count <= 0) return;
+		if(size > 0 && ops[size-1] == op) {
+			runs[size-1] += count;
+			return;
+		}
+		if(size == ops.length) {
+			ops = Arrays.copyOf(ops, 2 * size);
+			runs = Arrays.copyOf(runs, 2 * size);
+		}
+		ops[size] = op; runs[size++] = count;
+	}
+
+	/** Getter for the number of runs
+	 * @return Number of runs of equal operations
+	 */
+	public int runs() {
+		return size;
+	}
+
+	/** Getter for the operation of a run
+	 * @param index Index of the run
+	 * @return MATCH, MISMATCH, INSERT or DELETE
+	 */
+	public char getOperation(int index) {
+		if(index < 0 || index >= size)
+			throw new IllegalArgumentException("Index out of bounds in EditScript");
+		return ops[index];
+	}
+
+	/** Getter for the length of a run
+	 * @param index Index of the run
+	 * @return Number of columns of the run
+	 */
+	public int getRunLength(int index) {
+		if(index < 0 || index >= size)
+			throw new IllegalArgumentException("Index out of bounds in EditScript");
+		return runs[index];
+	}
+
+	/** Getter for the first aligned position in sequence 1
+	 * @return Start offset in sequence 1
+	 */
+	public int getStart1() {
+		return start1;
+	}
+
+	/** Getter for the first aligned position in sequence 2
+	 * @return Start offset in sequence 2
+	 */
+	public int getStart2() {
+		return start2;
+	}
+
+	/** Determines the number of columns of the alignment
+	 * @return Length of the alignment
+	 */
+	public int length() {
+		int length = 0;
+		for(int i = 0; i < size; i++) length += runs[i];
+		return length;
+	}
+
+	/** Returns the score of the alignment
+	 * @return The score
+	 */
+	public double getScore() {
+		return score;
+	}
+
+	/** Renders the script as CIGAR string, like 12=1X3I
+	 * @return The CIGAR string
+	 */
+	public String getCigar() {
+		StringBuilder cigar = new StringBuilder(4 * size);
+		for(int i = 0; i < size; i++) cigar.append(runs[i]).append(ops[i]);
+		return cigar.toString();
+	}
+
+	/** Renders the aligned strings with match symbols in one pass
+	 * @return The alignment of the two sequences with the score
+	 */
+	public Alignment toAlignment() {
+		int length = length();
+		char[] row1 = new char[length], row2 = new char[length], match = new char[length];
+		int x = start1, y = start2, k = 0;
+		for(int i = 0; i < size; i++) {
+			for(int r = 0; r < runs[i]; r++, k++) {
+				row1[k] = (ops[i] == INSERT) ? '_' : seq1.charAt(x++);
+				row2[k] = (ops[i] == DELETE) ? '_' : seq2.charAt(y++);
+				match[k] = (ops[i] == MATCH) ? '|' : (ops[i] == MISMATCH) ? '*' : ' ';
+			}
+		}
+		Alignment algn = new Alignment(2);
+		algn.setSeq(0, new String(row1));
+		algn.setSeq(1, new String(row2));
+		algn.matches[0] = new String(match);
+		algn.score = score;
+		return algn;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return getCigar();
+	}
+}
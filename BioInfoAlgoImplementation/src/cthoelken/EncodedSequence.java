@@ -0,0 +1,121 @@
+package cthoelken;
+
+import java.util.Arrays;
+
+/**
+ * Sequence whose residues are stored as indices of the substitution matrices.
+ * A sequence is encoded once, afterwards every score is a plain table lookup.
+ * Position 0 of the code array holds a BORDER symbol, so the residues can be
+ * addressed with the coordinates of the cost matrices, which reserve row and
+ * column 0 for the empty prefix.
+ *
+ * @author Clemens Thoelken
+ *
+ */
+public class EncodedSequence {
+
+	/** Code for the gap symbol '_' */
+	public static final byte GAP = 23;
+	/** Code for the gap symbol '-' inserted by progressive alignments */
+	public static final byte PAD = 24;
+	/** Code for every symbol not in the alphabet and for the border */
+	public static final byte UNKNOWN = 25;
+	/** Number of different codes */
+	public static final int SIZE = 26;
+
+	private static final byte[] CODES = new byte[128];	// code per ASCII symbol
+	private static final String ALPHABET = "ARNDCQEGHILKMFPSTWYVBZX";
+
+	static {
+		Arrays.fill(CODES, UNKNOWN);
+		for(byte i = 0; i < ALPHABET.length(); i++) {
+			CODES[ALPHABET.charAt(i)] = i;
+			CODES[Character.toLowerCase(ALPHABET.charAt(i))] = i;
+		}
+		CODES['_'] = GAP;
+		CODES['-'] = PAD;
+	}
+
+	private String name;			// sequence name
+	private String sequence;		// sequence string
+	final byte[] codes;				// BORDER followed by one code per residue
+
+	/** Constructor, symbols that are not in the alphabet are encoded as
+	 * UNKNOWN. Use isValid() to check for them.
+	 * @param name Name of the sequence
+	 * @param sequence The sequence string
+	 */
+	public EncodedSequence(String name, String sequence) {
+		this.name = name;
+		this.sequence = sequence;
+		codes = new byte[sequence.length() + 1];
+		codes[0] = UNKNOWN;
+		for(int i = 0; i < sequence.length(); i++)
+			codes[i+1] = code(sequence.charAt(i));
+	}
+
+	/** Constructor for an unnamed sequence
+	 * @param sequence The sequence string
+	 */
+	public EncodedSequence(String sequence) {
+		this("", sequence);
+	}
+
+	/** Returns the code for a symbol
+	 * @param a Symbol for an amino acid or a gap, upper or lower case
+	 * @return Index of the symbol in the substitution matrices
+	 */
+	public static byte code(char a) {
+		if(a < 128) return CODES[a];
+		a = Character.toUpperCase(a);
+		return (a < 128) ? CODES[a] : UNKNOWN;
+	}
+
+	/** Checks a symbol for being an amino acid or the gap '_'
+	 * @param a The symbol
+	 * @return TRUE if valid
+	 */
+	public static boolean isValid(char a) {
+		byte code = code(a);
+		return code != UNKNOWN && code != PAD;
+	}
+
+	/** Checks whether all residues are amino acids or gaps '_'
+	 * @return TRUE if valid
+	 */
+	public boolean isValid() {
+		for(int i = 1; i < codes.length; i++)
+			if(codes[i] == UNKNOWN || codes[i] == PAD) return false;
+		return true;
+	}
+
+	/** Returns the code of a residue
+	 * @param index Position in the sequence, starting with 0
+	 * @return Code of the residue
+	 */
+	public byte get(int index) {
+		return codes[index+1];
+	}
+
+	/** Returns the number of residues
+	 * @return Length of the sequence
+	 */
+	public int length() {
+		return codes.length - 1;
+	}
+
+	/** Getter for the name
+	 * @return The sequence's name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/* (non-Javadoc)
+	 * Returns the original sequence string
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return sequence;
+	}
+}
@@ -3,6 +3,7 @@ package cthoelken;
 import gui.AlgorithmParameter;
 import gui.BioinfAlgorithm;
 import gui.StringList;
+import java.io.IOException;
 import java.util.Vector;
 
  /**
@@ -18,7 +19,11 @@ public class FengDoolittle extends BioinfAlgorithm {
 	protected boolean usePAM;
 	protected double gapCosts;
 	protected Alignment alignment;
-	protected boolean useUPGMA;
+	protected boolean useWPGMA;		// TRUE for WPGMA, UPGMA otherwise
+	protected boolean useNJ;		// neighbour joining instead of PGMA
+	protected boolean useKmers;		// k-mer distances instead of alignments for the tree
+	protected boolean useSeeds;		// seed embedding instead of all pairs for the tree
+	protected boolean useProfiles;	// merge by profiles instead of the closest pair
 	protected Cluster tree;
 
 	 /**
@@ -44,7 +49,7 @@ public class FengDoolittle extends BioinfAlgorithm {
 				, new Boolean(true)));
 		super.parameters.add(new AlgorithmParameter(
 				"use WPGMA (otherwise UPGMA) pairing"
-				, "Choose YES to use unweighted or NO to use weighted for pairing." 
+				, "Choose YES to use weighted or NO to use unweighted pairing." 
 				, Boolean.class 
 				, new Boolean(true)));
 		super.parameters.add(new AlgorithmParameter(
@@ -52,6 +57,26 @@ public class FengDoolittle extends BioinfAlgorithm {
 				, "A double for the constant gap costs used for scoring."
 				, Double.class 
 				, new Double(-4.0)));
+		super.parameters.add(new AlgorithmParameter(
+				"use Neighbour Joining (otherwise PGMA) for the guide tree"
+				, "Choose YES to use neighbour joining or NO to use WPGMA / UPGMA." 
+				, Boolean.class 
+				, new Boolean(false)));
+		super.parameters.add(new AlgorithmParameter(
+				"use k-mer distances (otherwise alignments) for the guide tree"
+				, "Choose YES to compare common 4-mers of the Dayhoff groups or NO to align all pairs." 
+				, Boolean.class 
+				, new Boolean(false)));
+		super.parameters.add(new AlgorithmParameter(
+				"use seed embedding (otherwise all pairs) for the guide tree"
+				, "Choose YES for very many sequences to compare them to a few seeds only, overrides neighbour joining." 
+				, Boolean.class 
+				, new Boolean(false)));
+		super.parameters.add(new AlgorithmParameter(
+				"use profile alignment (otherwise closest pair) for the merges"
+				, "Choose YES to align whole sub-alignments by their profiles or NO to align their closest pair of sequences." 
+				, Boolean.class 
+				, new Boolean(false)));
 
 	}
 
@@ -81,36 +106,56 @@ public class FengDoolittle extends BioinfAlgorithm {
 	 */
 	@Override
 	public String run(Vector<AlgorithmParameter> params) {
-		
-		String retVal = new String("");
+		StringBuilder retVal = new StringBuilder();
+		try {
+			run(params, retVal);
+		} catch(IOException e) { throw new IllegalStateException(e); }
+		return retVal.toString();
+	}
+	
+	/**
+	 * Main method of the algorithm, streaming the tree and the alignment.
+	 * 
+	 * @param params The filled out parameters are entered externally.
+	 * @param out Destination of the used parameters, the results and errors
+	 * @throws IOException If the destination fails
+	 */
+	public void run(Vector<AlgorithmParameter> params, Appendable out) throws IOException {
 		
 		  // ##########  PARSE INPUT PARAMETERS FOR ERRORS  ###########
 		
 		try{
 			sequences = Util.parseFasta((StringList) params.elementAt(0).data);
 		} catch(IllegalArgumentException e) {
-			return e.toString();
-		} catch(Exception e) { return "The FASTA data is not valid!"; }
+			out.append(e.toString()); return;
+		} catch(Exception e) { out.append("The FASTA data is not valid!"); return; }
 		usePAM = (Boolean) params.elementAt(1).data;
-		useUPGMA = (Boolean) params.elementAt(2).data;
+		useWPGMA = (Boolean) params.elementAt(2).data;
 		try{
 			if(params.elementAt(3).data.getClass() == Double.class)
 				gapCosts = (Double) params.elementAt(3).data;
-			else return "Gap costs are not a valid decimal value!";
-		} catch(Exception e) {return "Gap costs are not a valid decimal value!";}
+			else { out.append("Gap costs are not a valid decimal value!"); return; }
+		} catch(Exception e) { out.append("Gap costs are not a valid decimal value!"); return; }
+		useNJ = (Boolean) params.elementAt(4).data;
+		useKmers = (Boolean) params.elementAt(5).data;
+		useSeeds = (Boolean) params.elementAt(6).data;
+		useProfiles = (Boolean) params.elementAt(7).data;
 		
 		  // ##########  RUN THE PROGRAM  ###########
 
-		tree = new PGMA().calculate(sequences, usePAM, !useUPGMA, gapCosts);
-		
-		tree.align(usePAM, gapCosts);
+		KmerDistance kmers = useKmers ? new KmerDistance(4, true) : null;
+		if(useSeeds) tree = new SeedEmbedding().setKmers(kmers).calculate(sequences, usePAM, gapCosts);
+		else if(useNJ) tree = new NeighbourJoining().setKmers(kmers).calculate(sequences, usePAM, gapCosts);
+		else tree = new PGMA().setKmers(kmers).calculate(sequences, usePAM, useWPGMA, gapCosts);
 		
-		retVal += "\n" + tree.toString();
-		retVal += "\n" + tree.generateAlignment(sequences).toString();
-		retVal += "\n Sum-of-Pairs Score: "  + SumOfPairs.score(tree.generateAlignment(sequences), usePAM, gapCosts);
+		tree.align(usePAM, gapCosts, useProfiles);
 		
-		  // returning the algorithm results
-		return retVal;
+		alignment = tree.generateAlignment(sequences);
+		out.append("\n").append(tree.toString());
+		out.append("\n");
+		AlignmentWriter.writePretty(alignment, out);
+		out.append("\n Sum-of-Pairs Score: ").append(String.valueOf(
+				SumOfPairs.score(alignment, usePAM, gapCosts)));
 	}
 	
 	/**
@@ -3,7 +3,10 @@ package cthoelken;
 import gui.AlgorithmParameter;
 import gui.BioinfAlgorithm;
 
-import java.util.Random;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Vector;
 
 /**
@@ -15,6 +18,17 @@ import java.util.Vector;
  */
 public class Gotoh extends NeedlemanWunsch {
 
+	private static final int LANES = 8;	// lanes of the striped approach
+
+	// pointer bits, M is reached from H, V or the diagonal, H and V from
+	// their opening in M or their extension
+	static final int M_H = 1, M_V = 2, M_DIAG = 4;
+	static final int H_OPEN = 8, H_EXT = 16, V_OPEN = 32, V_EXT = 64;
+	static final int STATE_M = 0, STATE_H = 1, STATE_V = 2;
+	// per traceback option the consumed sequences and the next state
+	private static final int[] MOVES = {1, 1, 2, 2, 3};
+	private static final int[] NEXT = {STATE_M, STATE_H, STATE_M, STATE_V, STATE_M};
+
 	protected double gapCostsExt;
 	protected CostMatrix H;
 	protected CostMatrix V;
@@ -45,138 +59,364 @@ public class Gotoh extends NeedlemanWunsch {
 				+ "programming.");
 	}
 
-	/** Fills the CostMatrices with values
-	 * @return The score for the overall alignment
+	/** Get the score of two Strings with affine gap costs from external
+	 * algorithms.
+	 * @param s1 Sequence string 1
+	 * @param s2 sequence string 2
+	 * @param usePAM Use PAM for substitution
+	 * @param gapCosts Gap opening costs for the alignment
+	 * @param gapCostsExt Gap extension costs for the alignment
+	 * @return Score of the alignment
 	 */
-	private double calculate() {
+	public double getScore(String s1, String s2, boolean usePAM, double gapCosts,
+			double gapCostsExt) {
+		return getScore(new EncodedSequence(s1), new EncodedSequence(s2), usePAM,
+				gapCosts, gapCostsExt);
+	}
 
-		seq1 = "#" + seq1;
-		seq2 = "#" + seq2; // increase sequence length, disregarded afterwards
+	/** Get the score of two encoded sequences with affine gap costs from
+	 * external algorithms. The striped approach is used whenever the costs
+	 * allow it, otherwise the CostMatrices are filled.
+	 * @param s1 Encoded sequence 1
+	 * @param s2 Encoded sequence 2
+	 * @param usePAM Use PAM for substitution
+	 * @param gapCosts Gap opening costs for the alignment
+	 * @param gapCostsExt Gap extension costs for the alignment
+	 * @return Score of the alignment
+	 */
+	public double getScore(EncodedSequence s1, EncodedSequence s2, boolean usePAM,
+			double gapCosts, double gapCostsExt) {
+		seq1 = s1.toString(); seq2 = s2.toString(); code1 = s1.codes; code2 = s2.codes;
+		this.usePAM = usePAM; this.gapCosts = gapCosts; this.gapCostsExt = gapCostsExt;
+		omega = new SubstitutionMatrix(usePAM, gapCosts);
+		if (StripedGotoh.isFeasable(omega, gapCosts, gapCostsExt, seq1.length() + seq2.length()))
+			return new StripedGotoh(omega, (int) gapCosts, (int) gapCostsExt, LANES)
+					.score(code1, code2);
+		return calculate();
+	}
 
-		// fill the cost matrix row-wise
-		for (int i = 0; i < seq1.length(); i++) {
-			//H.set(i, 0, Double.NEGATIVE_INFINITY); // init H fist row
-			for (int j = 0; j < seq2.length(); j++) {
-				//if (i == 0)
-				//	V.set(0, j, Double.NEGATIVE_INFINITY); // init V first column
-				if(i != 0 && j == 0) M.set(i, 0, M.get(i-1, 0) + gapCosts + gapCostsExt);
-				if(j != 0 && i == 0) M.set(0, j, M.get(0, j-1) + gapCosts + gapCostsExt);
-				//if (i != 0 || j != 0)
-					H.set(i, j, Util.maxValue(M.get(i-1, j)
-							+ gapCosts + gapCostsExt, 
-							H.get(i-1, j) + gapCostsExt));
-				//if (j != 0 || i != 0)
-					V.set(i, j, Util.maxValue(M.get(i, j-1)
-							+ gapCosts + gapCostsExt,
-							V.get(i, j-1) + gapCostsExt));
-				if (!(i == 0 && j == 0))
-					M.set(i, j, Util.maxValue(M.get(i-1, j-1)
-							+ omega.getScore(seq1.charAt(i), seq2.charAt(j)),
-							H.get(i, j), V.get(i, j)));
-									
+	/** Enumerates the co-optimal alignments with affine gap costs of two
+	 * encoded sequences lazily, see NeedlemanWunsch.getAlignments()
+	 * @param s1 Encoded sequence 1
+	 * @param s2 Encoded sequence 2
+	 * @param usePAM Use PAM for substitution
+	 * @param gapCosts Gap opening costs for the alignment
+	 * @param gapCostsExt Gap extension costs for the alignment
+	 * @param limit Maximal number of alignments
+	 * @return The alignments, each iterator starts with the first one again
+	 */
+	public Iterable<Alignment> getAlignments(EncodedSequence s1, EncodedSequence s2,
+			boolean usePAM, double gapCosts, double gapCostsExt, final int limit) {
+		fill(s1, s2, usePAM, gapCosts, gapCostsExt);
+		final String a = seq1, b = seq2;
+		final CostMatrix D = M;
+		return new Iterable<Alignment>() {
+			public Iterator<Alignment> iterator() {
+				return traceback(a, b, D).limit(limit);
 			}
-		}
-		return M.score();
+		};
 	}
 
-	/** Backtracks the CostMatrix and finds feasable paths
-	 * @param x x-offset
-	 * @param y y-offset
-	 * @param algn The alignment so far, started with an empty alignment
+	/** Get an optimal alignment with affine gap costs as compact edit script,
+	 * built directly from the traceback without alignment strings
+	 * @param s1 Encoded sequence 1
+	 * @param s2 Encoded sequence 2
+	 * @param usePAM Use PAM for substitution
+	 * @param gapCosts Gap opening costs for the alignment
+	 * @param gapCostsExt Gap extension costs for the alignment
+	 * @return The first optimal alignment as edit script with its score
 	 */
-	private void backtrack(int x, int y, Alignment algn) {
-
-		if (x < 0 || y < 0)
-			return; // we are out of bounds, shouldn't happen
+	public EditScript getEditScript(EncodedSequence s1, EncodedSequence s2, boolean usePAM, 
+			double gapCosts, double gapCostsExt) {
+		fill(s1, s2, usePAM, gapCosts, gapCostsExt);
+		return firstScript(traceback(seq1, seq2, M), M.score());
+	}
 
-		char[] column = new char[2];
-		char[] match = new char[1];
+	/** Counts the co-optimal paths through the CostMatrices exactly. Without
+	 * gap opening costs one alignment may be reached by several paths.
+	 * @param s1 Encoded sequence 1
+	 * @param s2 Encoded sequence 2
+	 * @param usePAM Use PAM for substitution
+	 * @param gapCosts Gap opening costs for the alignment
+	 * @param gapCostsExt Gap extension costs for the alignment
+	 * @return Number of optimal paths
+	 */
+	public BigInteger countAlignments(EncodedSequence s1, EncodedSequence s2,
+			boolean usePAM, double gapCosts, double gapCostsExt) {
+		fill(s1, s2, usePAM, gapCosts, gapCostsExt);
+		return traceback(seq1, seq2, M).count();
+	}
 
-		if (x == 0 && y == 0) {
-			algnmts.add(algn);
-			return;
-		}
+	/** Draws optimal alignments with affine gap costs uniformly among all
+	 * co-optimal paths, see NeedlemanWunsch.sampleAlignments()
+	 * @param s1 Encoded sequence 1
+	 * @param s2 Encoded sequence 2
+	 * @param usePAM Use PAM for substitution
+	 * @param gapCosts Gap opening costs for the alignment
+	 * @param gapCostsExt Gap extension costs for the alignment
+	 * @param k Number of samples
+	 * @param seed Seed of the random choices, equal seeds give equal samples
+	 * @return The sampled alignments, possibly with repetitions
+	 */
+	public List<Alignment> sampleAlignments(EncodedSequence s1, EncodedSequence s2,
+			boolean usePAM, double gapCosts, double gapCostsExt, int k, long seed) {
+		fill(s1, s2, usePAM, gapCosts, gapCostsExt);
+		return sample(traceback(seq1, seq2, M), k, seed);
+	}
 
-		int[] psbl = { 0, 0, 0 };
+	/** Sets the sequences and costs and fills the CostMatrices
+	 * @param s1 Encoded sequence 1
+	 * @param s2 Encoded sequence 2
+	 * @param usePAM Use PAM for substitution
+	 * @param gapCosts Gap opening costs for the alignment
+	 * @param gapCostsExt Gap extension costs for the alignment
+	 */
+	private void fill(EncodedSequence s1, EncodedSequence s2, boolean usePAM, 
+			double gapCosts, double gapCostsExt) {
+		seq1 = s1.toString(); seq2 = s2.toString(); code1 = s1.codes; code2 = s2.codes;
+		this.usePAM = usePAM; this.gapCosts = gapCosts; this.gapCostsExt = gapCostsExt;
+		omega = new SubstitutionMatrix(usePAM, gapCosts);
+		calculate();
+	}
 
-		// insertion
-		if (M.get(x, y) == H.get(x, y)) psbl[0] = 1;
+	/** Creates the CostMatrices and fills them with values, with integers if
+	 * all costs are integral and no score can overflow
+	 * @return The score for the overall alignment
+	 */
+	private double calculate() {
 
-		// deletion, start new thread from there
-		if (M.get(x, y) == V.get(x, y)) psbl[1] = 1;
+		seq1 = "#" + seq1;
+		seq2 = "#" + seq2; // increase sequence length, disregarded afterwards
 
-		// match/mismatch, lets carry on
-		if (M.get(x, y) == M.get(x - 1, y - 1)
-				+ omega.getScore(seq1.charAt(x), seq2.charAt(y)))
-			psbl[2] = 1;
+		int[] band = bandLimits(seq1.length()-1, seq2.length()-1);
+		while (band != null) {
+			calculateBanded(band[0], band[1]);
+			if (!verifyBand || !touchesBandEdge((BandedCostMatrix) M)) return M.score();
+			band = widenBand(band, seq1.length()-1, seq2.length()-1);
+		}
 
-		int num_psbl = psbl[0] + psbl[1] + psbl[2];
-		if (randomBackTrace && num_psbl > 1) {
-			int random;
-			if (num_psbl == 3) {
-				psbl[0] = 0;
-				psbl[1] = 0;
-				psbl[2] = 0;
-				psbl[new Random().nextInt(3)] = 1;
+		if (omega.isIntegral() && Util.isIntegral(gapCostsExt)
+				&& Util.fitsInt(seq1.length() + seq2.length(), omega.getMaxAbsScore()
+						+ Math.abs(gapCosts) + Math.abs(gapCostsExt)))
+			return calculateInt();
+
+		M = new CostMatrix2D(seq1.length(), seq2.length());
+		M.recordPointers();
+		H = new CostMatrix2D(seq1.length(), seq2.length());
+		V = new CostMatrix2D(seq1.length(), seq2.length());
+		Wavefront.fill(new Wavefront.Tile() {
+			public void fill(int rowFrom, int rowTo, int colFrom, int colTo) {
+				fillTile(rowFrom, rowTo, colFrom, colTo);
 			}
-			if (num_psbl == 2) {
-				random = new Random().nextInt(2);
-				if (psbl[0] == 1) {
-					if (psbl[1] == 1) {
-						psbl[0] = random;
-						psbl[1] = 1 - random;
-					} else {
-						psbl[0] = random;
-						psbl[2] = 1 - random;
-					}
-				} else {
-					psbl[1] = random;
-					psbl[2] = 1 - random;
+		}, seq1.length(), seq2.length(), tileSize);
+		return M.score();
+	}
+
+	/** Fills a rectangular part of the CostMatrices row-wise
+	 * @param rowFrom First row
+	 * @param rowTo Row behind the last one
+	 * @param colFrom First column
+	 * @param colTo Column behind the last one
+	 */
+	private void fillTile(int rowFrom, int rowTo, int colFrom, int colTo) {
+		CostMatrix2D D = (CostMatrix2D) M;
+		double[] m = D.cells;
+		double[] h = ((CostMatrix2D) H).cells, v = ((CostMatrix2D) V).cells;
+		byte[] p = D.pointers;	// pointers of all three matrices
+		int up = D.stride;	// all three matrices share the same layout
+		double[] scores = omega.table;
+		int idx, row;
+		double hOpen, hExt, vOpen, vExt, sub;
+
+		for (int i = rowFrom; i < rowTo; i++) {
+			idx = D.index(i, colFrom);
+			row = code1[i] * EncodedSequence.SIZE;	// scores of residue i
+			for (int j = colFrom; j < colTo; j++, idx++) {
+				if(i != 0 && j == 0) m[idx] = m[idx-up] + gapCosts + gapCostsExt;
+				if(j != 0 && i == 0) m[idx] = m[idx-1] + gapCosts + gapCostsExt;
+				hOpen = m[idx-up] + gapCosts + gapCostsExt; hExt = h[idx-up] + gapCostsExt;
+				vOpen = m[idx-1] + gapCosts + gapCostsExt; vExt = v[idx-1] + gapCostsExt;
+				h[idx] = Util.maxValue(hOpen, hExt);
+				v[idx] = Util.maxValue(vOpen, vExt);
+				if (!(i == 0 && j == 0)) {
+					sub = m[idx-up-1] + scores[row + code2[j]];
+					m[idx] = Util.maxValue(sub, h[idx], v[idx]);
+					p[idx] = (byte) ((m[idx] == h[idx] ? M_H : 0) | (m[idx] == v[idx] ? M_V : 0)
+							| (m[idx] == sub ? M_DIAG : 0) | (h[idx] == hOpen ? H_OPEN : 0)
+							| (h[idx] == hExt ? H_EXT : 0) | (v[idx] == vOpen ? V_OPEN : 0)
+							| (v[idx] == vExt ? V_EXT : 0));
 				}
 			}
 		}
+	}
 
-		match[0] = ' ';
+	/** Fills the CostMatrices within a band of diagonals only
+	 * @param lower Lowest diagonal y-x of the band
+	 * @param upper Highest diagonal y-x of the band
+	 */
+	private void calculateBanded(int lower, int upper) {
+		BandedCostMatrix D = new BandedCostMatrix(seq1.length(), seq2.length(), lower, upper);
+		M = D;
+		H = new BandedCostMatrix(seq1.length(), seq2.length(), lower, upper);
+		V = new BandedCostMatrix(seq1.length(), seq2.length(), lower, upper);
+		D.recordPointers();
+		double[] m = D.cells;
+		double[] h = ((BandedCostMatrix) H).cells, v = ((BandedCostMatrix) V).cells;
+		byte[] p = D.pointers;
+		int up = D.stride - 1;	// the diagonal predecessor is one further
+		double[] scores = omega.table;
+		int idx, row;
+		double hOpen, hExt, vOpen, vExt, sub;
 
-		if (psbl[0] == 1) {
-			column[0] = seq1.charAt(x);
-			column[1] = '_';
-			backtrack(x - 1, y, algn.addFirst(column, match));
+		for (int i = 0; i < seq1.length(); i++) {
+			idx = D.index(i, D.first(i));
+			row = code1[i] * EncodedSequence.SIZE;
+			for (int j = D.first(i); j <= D.last(i); j++, idx++) {
+				if(i != 0 && j == 0) m[idx] = m[idx-up] + gapCosts + gapCostsExt;
+				if(j != 0 && i == 0) m[idx] = m[idx-1] + gapCosts + gapCostsExt;
+				hOpen = m[idx-up] + gapCosts + gapCostsExt; hExt = h[idx-up] + gapCostsExt;
+				vOpen = m[idx-1] + gapCosts + gapCostsExt; vExt = v[idx-1] + gapCostsExt;
+				h[idx] = Util.maxValue(hOpen, hExt);
+				v[idx] = Util.maxValue(vOpen, vExt);
+				if (!(i == 0 && j == 0)) {
+					sub = m[idx-up-1] + scores[row + code2[j]];
+					m[idx] = Util.maxValue(sub, h[idx], v[idx]);
+					p[idx] = (byte) ((m[idx] == h[idx] ? M_H : 0) | (m[idx] == v[idx] ? M_V : 0)
+							| (m[idx] == sub ? M_DIAG : 0) | (h[idx] == hOpen ? H_OPEN : 0)
+							| (h[idx] == hExt ? H_EXT : 0) | (v[idx] == vOpen ? V_OPEN : 0)
+							| (v[idx] == vExt ? V_EXT : 0));
+				}
+			}
 		}
-		if (psbl[1] == 1) {
-			column[0] = '_';
-			column[1] = seq2.charAt(y);
-			backtrack(x, y - 1, algn.addFirst(column, match));
+	}
+
+	/** Follows one optimal path through banded CostMatrices, switching
+	 * between the three matrices like the affine recurrence does
+	 * @param D The filled cost matrix M
+	 * @return TRUE if the path touches the edge of the band
+	 */
+	private boolean touchesBandEdge(BandedCostMatrix D) {
+		int x = seq1.length() - 1, y = seq2.length() - 1;
+		int state = STATE_M;
+		while (x > 0 || y > 0) {
+			if (D.onEdge(x, y)) return true;
+			int option = Integer.numberOfTrailingZeros(options(D, x, y, state));
+			if (MOVES[option] != 2) x--;
+			if (MOVES[option] != 1) y--;
+			state = NEXT[option];
 		}
-		if (psbl[2] == 1) {
-			column[0] = seq1.charAt(x);
-			column[1] = seq2.charAt(y);
-			match[0] = (seq1.charAt(x) == seq2.charAt(y)) ? '|' : '*';
-			backtrack(x - 1, y - 1, algn.addFirst(column, match));
+		return false;
+	}
+
+	/** Integer version of calculate()
+	 * @return The score for the overall alignment
+	 */
+	private double calculateInt() {
+		M = new IntCostMatrix2D(seq1.length(), seq2.length());
+		M.recordPointers();
+		H = new IntCostMatrix2D(seq1.length(), seq2.length());
+		V = new IntCostMatrix2D(seq1.length(), seq2.length());
+		Wavefront.fill(new Wavefront.Tile() {
+			public void fill(int rowFrom, int rowTo, int colFrom, int colTo) {
+				fillTileInt(rowFrom, rowTo, colFrom, colTo);
+			}
+		}, seq1.length(), seq2.length(), tileSize);
+		return M.score();
+	}
+
+	/** Integer version of fillTile()
+	 * @param rowFrom First row
+	 * @param rowTo Row behind the last one
+	 * @param colFrom First column
+	 * @param colTo Column behind the last one
+	 */
+	private void fillTileInt(int rowFrom, int rowTo, int colFrom, int colTo) {
+		IntCostMatrix2D D = (IntCostMatrix2D) M;
+		int[] m = D.cells, h = ((IntCostMatrix2D) H).cells, v = ((IntCostMatrix2D) V).cells;
+		byte[] p = D.pointers;
+		int up = D.stride;
+		int open = (int) gapCosts + (int) gapCostsExt;
+		int ext = (int) gapCostsExt;
+		int[] scores = omega.intTable;
+		int idx, row, hOpen, hExt, vOpen, vExt, sub;
+
+		for (int i = rowFrom; i < rowTo; i++) {
+			idx = D.index(i, colFrom);
+			row = code1[i] * EncodedSequence.SIZE;
+			for (int j = colFrom; j < colTo; j++, idx++) {
+				if(i != 0 && j == 0) m[idx] = m[idx-up] + open;
+				if(j != 0 && i == 0) m[idx] = m[idx-1] + open;
+				hOpen = m[idx-up] + open; hExt = h[idx-up] + ext;
+				vOpen = m[idx-1] + open; vExt = v[idx-1] + ext;
+				h[idx] = Math.max(hOpen, hExt);
+				v[idx] = Math.max(vOpen, vExt);
+				if (!(i == 0 && j == 0)) {
+					sub = m[idx-up-1] + scores[row + code2[j]];
+					m[idx] = Math.max(sub, Math.max(h[idx], v[idx]));
+					p[idx] = (byte) ((m[idx] == h[idx] ? M_H : 0) | (m[idx] == v[idx] ? M_V : 0)
+							| (m[idx] == sub ? M_DIAG : 0) | (h[idx] == hOpen ? H_OPEN : 0)
+							| (h[idx] == hExt ? H_EXT : 0) | (v[idx] == vOpen ? V_OPEN : 0)
+							| (v[idx] == vExt ? V_EXT : 0));
+				}
+			}
 		}
 	}
 
+	/** Translates the pointers of a cell into the options of the traceback.
+	 * Options 0 and 1 end a gap in sequence 2 at its opening or extension,
+	 * options 2 and 3 do the same for sequence 1 and option 4 is the
+	 * diagonal.
+	 * @param D The filled cost matrix M holding the pointers of all three
+	 * @param x Position in sequence 1
+	 * @param y Position in sequence 2
+	 * @param state Matrix the path is in, STATE_M, STATE_H or STATE_V
+	 * @return Bit i set if option i lies on an optimal path
+	 */
+	private static int options(CostMatrix D, int x, int y, int state) {
+		int p = D.getPointers(x, y, 0);
+		int gapH = (p >> 3) & 3, gapV = ((p >> 5) & 3) << 2;
+		if (state == STATE_H) return gapH;
+		if (state == STATE_V) return gapV;
+		return ((p & M_DIAG) << 2) | (((p & M_H) != 0) ? gapH : 0) | (((p & M_V) != 0) ? gapV : 0);
+	}
+
+	/** Creates a traceback along the recorded pointers of the CostMatrices
+	 * @param s1 Sequence string 1 including the border symbol
+	 * @param s2 Sequence string 2 including the border symbol
+	 * @param D The filled cost matrix M
+	 * @return The traceback, starting in the last cell
+	 */
+	private static Traceback traceback(String s1, String s2, final CostMatrix D) {
+		return new Traceback(new String[] {s1, s2}, MOVES, NEXT) {
+			int options(int x, int y, int z, int state) {
+				return Gotoh.options(D, x, y, state);
+			}
+		};
+	}
+
 	/**
 	 * Main method of the algorithm.
 	 * 
 	 * @param params
 	 *            The filled out parameters are entered externally.
-	 * 
-	 * @return Output string containing the used parameters, the results and
-	 *         errors.
+	 * @param out
+	 *            Destination of the used parameters, the results and errors.
+	 * @throws IOException
+	 *             If the destination fails
 	 */
 	@Override
-	public String run(Vector<AlgorithmParameter> params) {
-
-		String retVal = new String("");
+	public void run(Vector<AlgorithmParameter> params, Appendable out) throws IOException {
 
 		// ########## PARSE INPUT PARAMETERS FOR ERRORS ###########
 
 		seq1 = (String) params.elementAt(0).data;
-		if(!Util.isValidSequence(seq1)) return "Sequence 1 is not valid!";
+		if(!Util.isValidSequence(seq1)) { out.append("Sequence 1 is not valid!"); return; }
 		
 		seq2 = (String) params.elementAt(1).data;
-		if(!Util.isValidSequence(seq2)) return "Sequence 2 is not valid!";
+		if(!Util.isValidSequence(seq2)) { out.append("Sequence 2 is not valid!"); return; }
+		
+		code1 = new EncodedSequence(seq1).codes;
+		code2 = new EncodedSequence(seq2).codes;
 		
 		usePAM = (Boolean) params.elementAt(2).data;
 		randomBackTrace = (Boolean) params.elementAt(3).data;
@@ -184,32 +424,22 @@ public class Gotoh extends NeedlemanWunsch {
 		try{
 			if(params.elementAt(4).data.getClass() == Double.class)
 				gapCosts = (Double) params.elementAt(4).data;
-			else return "Gap costs are not a valid decimal value!";
-		} catch(Exception e) {return "Gap costs are not a valid decimal value!";}
+			else { out.append("Gap costs are not a valid decimal value!"); return; }
+		} catch(Exception e) { out.append("Gap costs are not a valid decimal value!"); return; }
 		try{
 			if(params.elementAt(5).data.getClass() == Double.class)
 				gapCostsExt = (Double) params.elementAt(5).data;
-			else return "Extended gap costs are not a valid decimal value!";
-		} catch(Exception e) {return "Extended gap costs are not a valid decimal value!";}
+			else { out.append("Extended gap costs are not a valid decimal value!"); return; }
+		} catch(Exception e) { out.append("Extended gap costs are not a valid decimal value!"); return; }
 
 		omega = new SubstitutionMatrix(usePAM, gapCosts);
-		M = new CostMatrix(seq1.length() + 1, seq2.length() + 1);
-		H = new CostMatrix(seq1.length() + 1, seq2.length() + 1);
-		V = new CostMatrix(seq1.length() + 1, seq2.length() + 1);
 
 		// ########## RUN THE PROGRAM ###########
 
-		retVal += "\n Maximal Score: " + calculate();
-
-		backtrack(seq1.length() - 1, seq2.length() - 1, new Alignment(2));
-
-		// ### print alignments to return string ###
-		for (int k = 0; k < algnmts.size(); k++)
-			retVal += "\n########### Alignment " + k + ":\n"
-					+ algnmts.get(k).toString();
+		out.append("\n Maximal Score: ").append(String.valueOf(calculate()));
 
-		// returning the algorithm results
-		return retVal;
+		// ### print alignments to the destination ###
+		writeAlignments(traceback(seq1, seq2, M), randomBackTrace, 0, out);
 	}
 
 	/**
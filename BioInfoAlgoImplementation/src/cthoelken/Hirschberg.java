@@ -0,0 +1,181 @@
+package cthoelken;
+
+/**
+ * Linear space variant of the Needleman Wunsch Algorithm following the divide
+ * and conquer approach of Hirschberg. Only two rows of scores are kept at any
+ * time, so the memory needed is O(n+m) instead of O(n*m).
+ *
+ * @author Clemens Thoelken
+ *
+ */
+class Hirschberg {
+
+	private SubstitutionMatrix omega;
+	private double gapCosts;
+	private char[] a;			// sequence 1
+	private char[] b;			// sequence 2
+	private double[] fwd;		// forward score row
+	private double[] rev;		// reverse score row
+	private double[] tmp;		// scratch row
+	private StringBuilder row1;	// aligned sequence 1
+	private StringBuilder row2;	// aligned sequence 2
+	private StringBuilder match;	// match/mismatch symbols
+	private EditScript script;	// the columns as edit operations
+	private double score;		// score of the columns so far
+
+	/** Constructor
+	 * @param omega Substitution matrix used for scoring
+	 * @param gapCosts Linear gap costs
+	 */
+	Hirschberg(SubstitutionMatrix omega, double gapCosts) {
+		this.omega = omega;
+		this.gapCosts = gapCosts;
+	}
+
+	/** Computes an optimal global alignment of two sequences in linear space
+	 * @param s1 Sequence string 1
+	 * @param s2 Sequence string 2
+	 * @return An optimal alignment with its score set
+	 */
+	Alignment align(String s1, String s2) {
+		a = s1.toCharArray(); b = s2.toCharArray();
+		fwd = new double[b.length+1];
+		rev = new double[b.length+1];
+		tmp = new double[b.length+1];
+		row1 = new StringBuilder(a.length + b.length);
+		row2 = new StringBuilder(a.length + b.length);
+		match = new StringBuilder(a.length + b.length);
+		script = new EditScript(s1, s2, 0, 0);
+		score = 0.0;
+
+		align(0, a.length, 0, b.length);
+
+		Alignment algn = new Alignment(2);
+		algn.setSeq(0, row1.toString());
+		algn.setSeq(1, row2.toString());
+		algn.matches[0] = match.toString();
+		algn.setScore(score);
+		return algn;
+	}
+
+	/** Computes an optimal global alignment of two sequences in linear space
+	 * as edit script, its operations are recorded while the columns are found
+	 * @param s1 Sequence string 1
+	 * @param s2 Sequence string 2
+	 * @return The script with its score set
+	 */
+	EditScript alignScript(String s1, String s2) {
+		align(s1, s2);
+		script.score = score;
+		return script;
+	}
+
+	/** Recursively aligns a[aFrom..aTo) with b[bFrom..bTo) and appends the
+	 * columns to the output rows
+	 * @param aFrom First position in sequence 1
+	 * @param aTo Position behind the last one in sequence 1
+	 * @param bFrom First position in sequence 2
+	 * @param bTo Position behind the last one in sequence 2
+	 */
+	private void align(int aFrom, int aTo, int bFrom, int bTo) {
+		if(aTo - aFrom == 0) {	// only gaps left in sequence 1
+			for(int j = bFrom; j < bTo; j++) addColumn('_', b[j], EditScript.INSERT);
+			return;
+		}
+		if(bTo - bFrom == 0) {	// only gaps left in sequence 2
+			for(int i = aFrom; i < aTo; i++) addColumn(a[i], '_', EditScript.DELETE);
+			return;
+		}
+		if(aTo - aFrom == 1) {	// small enough for the quadratic approach
+			alignSingle(a[aFrom], bFrom, bTo);
+			return;
+		}
+
+		int aMid = (aFrom + aTo) / 2;
+		lastRow(aFrom, aMid, bFrom, bTo, false, fwd);
+		lastRow(aMid, aTo, bFrom, bTo, true, rev);
+
+		// find the split point of sequence 2 on an optimal path
+		int width = bTo - bFrom;
+		int split = 0;
+		double max = Double.NEGATIVE_INFINITY;
+		for(int k = 0; k <= width; k++)
+			if(max < fwd[k] + rev[width-k]) {
+				max = fwd[k] + rev[width-k];
+				split = k;
+			}
+
+		align(aFrom, aMid, bFrom, bFrom + split);		// RECURSION
+		align(aMid, aTo, bFrom + split, bTo);
+	}
+
+	/** Computes the last row of the cost matrix for a[aFrom..aTo) against
+	 * all prefixes (or suffixes if reversed) of b[bFrom..bTo)
+	 * @param aFrom First position in sequence 1
+	 * @param aTo Position behind the last one in sequence 1
+	 * @param bFrom First position in sequence 2
+	 * @param bTo Position behind the last one in sequence 2
+	 * @param reverse Align the reversed segments
+	 * @param out Row the result is written to
+	 */
+	private void lastRow(int aFrom, int aTo, int bFrom, int bTo, boolean reverse, double[] out) {
+		int width = bTo - bFrom;
+		double[] prev = out; double[] curr = tmp; double[] swap;
+		prev[0] = 0.0;
+		for(int j = 1; j <= width; j++) prev[j] = prev[j-1] + gapCosts;
+
+		for(int i = 1; i <= aTo - aFrom; i++) {
+			char ca = reverse ? a[aTo-i] : a[aFrom+i-1];
+			curr[0] = prev[0] + gapCosts;
+			for(int j = 1; j <= width; j++) {
+				char cb = reverse ? b[bTo-j] : b[bFrom+j-1];
+				curr[j] = Util.maxValue(curr[j-1] + gapCosts, prev[j] + gapCosts,
+						prev[j-1] + omega.getScore(ca, cb));
+			}
+			swap = prev; prev = curr; curr = swap;
+		}
+		if(prev != out) System.arraycopy(prev, 0, out, 0, width+1);
+	}
+
+	/** Aligns a single residue of sequence 1 with b[bFrom..bTo)
+	 * @param ca The residue of sequence 1
+	 * @param bFrom First position in sequence 2
+	 * @param bTo Position behind the last one in sequence 2
+	 */
+	private void alignSingle(char ca, int bFrom, int bTo) {
+		int width = bTo - bFrom;
+
+		// either ca is aligned to a gap ...
+		double max = (width + 1) * gapCosts;
+		int pos = -1;
+
+		// ... or to exactly one residue of sequence 2
+		for(int j = bFrom; j < bTo; j++)
+			if(max < (width - 1) * gapCosts + omega.getScore(ca, b[j])) {
+				max = (width - 1) * gapCosts + omega.getScore(ca, b[j]);
+				pos = j;
+			}
+
+		if(pos < 0) addColumn(ca, '_', EditScript.DELETE);
+		for(int j = bFrom; j < bTo; j++)
+			if(j == pos) addColumn(ca, b[j], EditScript.substitution(ca, b[j]));
+			else addColumn('_', b[j], EditScript.INSERT);
+	}
+
+	/** Appends a column to the alignment
+	 * @param c1 Symbol of sequence 1
+	 * @param c2 Symbol of sequence 2
+	 * @param op Edit operation of the column
+	 */
+	private void addColumn(char c1, char c2, char op) {
+		row1.append(c1); row2.append(c2);
+		script.append(op, 1);
+		if(op == EditScript.INSERT || op == EditScript.DELETE) {
+			score += gapCosts;
+			match.append(' ');
+		} else {
+			score += omega.getScore(c1, c2);
+			match.append((op == EditScript.MATCH) ? '|' : '*');
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package cthoelken;
+
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+
+/** Cost matrix for two sequences holding integer scores. It has the same
+ * flat layout as CostMatrix2D but needs half the memory. The border holds
+ * SENTINEL, which is far enough away from Integer.MIN_VALUE that adding
+ * a few costs to it cannot overflow; every value below the border limit
+ * is reported as NEGATIVE_INFINITY.
+ * @author Clemens Thoelken
+ *
+ */
+public class IntCostMatrix2D extends CostMatrix {
+	
+	static final int SENTINEL = Integer.MIN_VALUE / 2;
+	
+	final int[] cells;		// values including the border
+	final int stride;		// distance between two rows in cells
+	final int xLength;
+	final int yLength;
+
+	/** Constructor for two sequences
+	 * @param xLength Length of sequence 1
+	 * @param yLength Length of sequence 2
+	 */
+	IntCostMatrix2D(int xLength, int yLength) {
+		if(xLength < 1 || yLength < 1) 
+			throw new InvalidParameterException("Sequence length not feasable!");
+		this.xLength = xLength; this.yLength = yLength;
+		stride = yLength + 1;
+		cells = new int[(xLength + 2) * stride + 1];
+		Arrays.fill(cells, SENTINEL);
+		for(int x = 0; x < xLength; x++)
+			Arrays.fill(cells, index(x, 0), index(x, yLength), 0);
+	}
+	
+	/** Computes the position of x, y in the flat array
+	 * @param x Position in sequence 1
+	 * @param y Position in sequence 2
+	 * @return Index in cells
+	 */
+	final int index(int x, int y) {
+		return (x + 1) * stride + y + 1;
+	}
+	
+	@Override
+	public double get(int x, int y) {
+		return Util.toDouble(cells[(x + 1) * stride + y + 1]);
+	}
+	
+	@Override
+	public double get(int x, int y, int z) {
+		if(z != 0) return Double.NEGATIVE_INFINITY;
+		return get(x, y);
+	}
+	
+	@Override
+	final int index(int x, int y, int z) {
+		return index(x, y);
+	}
+	
+	@Override
+	void recordPointers() {
+		pointers = new byte[cells.length];
+	}
+	
+	@Override
+	public double score() {
+		return get(xLength-1, yLength-1);
+	}
+	
+	@Override
+	public void set(int x, int y, double value) {
+		if(x < 0 || y < 0 || x >= xLength || y >= yLength)
+			throw new InvalidParameterException("Index not feasable! x="+x+" y="+y);
+		cells[index(x, y)] = Util.toInt(value);
+	}
+	
+	@Override
+	public void set(int x, int y, int z, double value) {
+		if(z != 0)
+			throw new InvalidParameterException("Index not feasable! x="+x+" y="+y+" z="+z);
+		set(x, y, value);
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		StringBuilder retVal = new StringBuilder();
+		for(int x = 0; x < xLength; x++)
+			retVal.append(Arrays.toString(Arrays.copyOfRange(cells, index(x, 0), 
+					index(x, yLength)))).append("\n");
+		return retVal.toString();
+	}
+	
+}
@@ -0,0 +1,103 @@
+package cthoelken;
+
+import java.util.Arrays;
+
+/**
+ * Alignment-free distance of two sequences by their common k-mers. Every
+ * sequence is turned into a profile once, the sorted array of its k-mers,
+ * each packed into a long. Two profiles are compared by a single merge in
+ * O(L), instead of an O(L^2) alignment. The distance is the fraction of
+ * k-mers of the shorter sequence that the other one does not share,
+ *   d = 1 - F / min(n1, n2)
+ * with F the number of common k-mers counted with multiplicity.
+ *
+ * Optionally the residues are first reduced to the six Dayhoff groups
+ * AGPST, C, DENQ, FWY, HKR and ILMV, so longer k-mers stay sensitive for
+ * distant sequences. K-mers with a gap or an unknown symbol are skipped.
+ *
+ * @author Clemens Thoelken
+ *
+ */
+public class KmerDistance {
+
+	private static final byte SKIP = -1;
+	private static final byte[] DAYHOFF = new byte[EncodedSequence.SIZE];
+
+	static {
+		Arrays.fill(DAYHOFF, SKIP);
+		String[] groups = {"AGPST", "C", "DENQB", "FWY", "HKR", "ILMV"};
+		for(byte g = 0; g < groups.length; g++)
+			for(int i = 0; i < groups[g].length(); i++)
+				DAYHOFF[EncodedSequence.code(groups[g].charAt(i))] = g;
+		DAYHOFF[EncodedSequence.code('Z')] = DAYHOFF[EncodedSequence.code('E')];
+	}
+
+	private int k;				// length of the k-mers
+	private boolean compressed;	// use the Dayhoff groups
+	private int alphabet;		// number of different residues
+
+	/** Constructor
+	 * @param k Length of the k-mers
+	 * @param compressed Reduce the residues to the six Dayhoff groups
+	 */
+	public KmerDistance(int k, boolean compressed) {
+		this.k = k;
+		this.compressed = compressed;
+		alphabet = compressed ? 6 : EncodedSequence.UNKNOWN - 2;	// without GAP and PAD
+		if(k < 1 || k * Math.log(alphabet) >= 62 * Math.log(2))
+			throw new IllegalArgumentException("K-mers of length " + k + " do not fit into a long!");
+	}
+
+	/** Builds the profile of a sequence
+	 * @param seq The encoded sequence
+	 * @return The sorted packed k-mers, one entry per position
+	 */
+	public long[] profile(EncodedSequence seq) {
+		byte[] codes = seq.codes;
+		long[] kmers = new long[Math.max(0, codes.length - k)];
+		long top = 1;						// weight of the oldest residue
+		for(int i = 1; i < k; i++) top *= alphabet;
+		int size = 0, valid = 0;
+		long kmer = 0;
+		for(int i = 1; i < codes.length; i++) {
+			int residue = residue(codes[i]);
+			if(residue == SKIP) {			// start over behind the gap
+				valid = 0; kmer = 0;
+				continue;
+			}
+			if(valid == k) kmer -= (kmer / top) * top;
+			else valid++;
+			kmer = kmer * alphabet + residue;
+			if(valid == k) kmers[size++] = kmer;
+		}
+		kmers = Arrays.copyOf(kmers, size);
+		Arrays.sort(kmers);
+		return kmers;
+	}
+
+	/** Computes the distance of two profiles by merging them
+	 * @param p1 Profile of sequence 1
+	 * @param p2 Profile of sequence 2
+	 * @return Distance between 0 for equal and 1 for no common k-mers
+	 */
+	public double distance(long[] p1, long[] p2) {
+		int shorter = Math.min(p1.length, p2.length);
+		if(shorter == 0) return 1.0;
+		int common = 0;
+		for(int i = 0, j = 0; i < p1.length && j < p2.length; ) {
+			if(p1[i] < p2[j]) i++;
+			else if(p1[i] > p2[j]) j++;
+			else { common++; i++; j++; }
+		}
+		return 1.0 - (double) common / shorter;
+	}
+
+	/** Maps a code to the residue index of the k-mers
+	 * @param code Code of the EncodedSequence
+	 * @return Index below the alphabet size, SKIP for gaps and unknown symbols
+	 */
+	private int residue(byte code) {
+		if(compressed) return DAYHOFF[code];
+		return (code < alphabet) ? code : SKIP;
+	}
+}
@@ -0,0 +1,180 @@
+package cthoelken;
+
+/**
+ * Agglomerative clustering with WPGMA or UPGMA that merges in exactly the
+ * order of the greedy search for the closest pair. Clusters are ordered by
+ * id, leaves first and every merge appended at the end, as in the list of
+ * the greedy approach. Every cluster keeps its nearest neighbour among the
+ * clusters after it, the first one of equal distance, and a priority queue
+ * orders the clusters by that distance and then by id. A merge only moves
+ * the neighbours of clusters pointing at one of the merged ones, those are
+ * searched again when they come to the front of the queue. The merges are
+ * the ones of the greedy approach, ties included, with the same updates, in
+ * O(n^2 log n) for typical data instead of O(n^3). The updated distances
+ * are written to the lower triangle of the matrix only, its upper triangle
+ * keeps the distances of the items.
+ *
+ * @author Clemens Thoelken
+ *
+ */
+class NearestNeighbourQueue {
+
+	final int[] first;			// per merge: id of the first cluster
+	final int[] second;			// per merge: id of the second cluster
+	final double[] heights;		// per merge: distance of the two clusters
+
+	private double[][] distances;	// rows of the distances, lower triangle overwritten
+	private int n;
+	private int[] ids;			// cluster id of every row, -1 when merged away
+	private int[] neighbours;	// row of the nearest later cluster, -1 for none
+	private int[] neighbourIds;	// its id when it was found
+	private double[] minima;	// distance to it, a lower bound if it is gone
+	private int[] heap;			// rows in queue order
+	private int[] positions;	// position of every row in the heap
+	private int size;			// number of rows in the heap
+
+	/** Clusters all items. Leaves have the ids 0 to n-1, merge m creates the
+	 * cluster with id n+m, the merges are in the order of the greedy approach.
+	 * @param distances The n rows of the symmetric distances, the lower
+	 * triangle is overwritten
+	 * @param weighted Use WPGMA, UPGMA otherwise
+	 */
+	NearestNeighbourQueue(double[][] distances, boolean weighted) {
+		int n = distances.length;
+		if(n < 1) throw new IllegalArgumentException("Nothing to cluster!");
+		first = new int[n-1]; second = new int[n-1]; heights = new double[n-1];
+		this.distances = distances; this.n = n;
+		ids = new int[n]; neighbours = new int[n]; neighbourIds = new int[n];
+		minima = new double[n]; heap = new int[n]; positions = new int[n];
+
+		int[] sizes = new int[n];		// number of items per row
+		for(int i = 0; i < n; i++) {
+			ids[i] = i; sizes[i] = 1;
+		}
+		for(int i = 0; i < n; i++) {
+			findNeighbour(i);
+			heap[i] = i; positions[i] = i;
+		}
+		size = n;
+		for(int p = n / 2 - 1; p >= 0; p--) siftDown(p);
+
+		for(int m = 0; m < n-1; m++) {
+			int a = heap[0];
+			while(neighbours[a] < 0 || ids[neighbours[a]] != neighbourIds[a]) {
+				findNeighbour(a);		// its neighbour was merged, search again
+				siftDown(0);
+				a = heap[0];
+			}
+			int b = neighbours[a];
+			first[m] = ids[a]; second[m] = ids[b]; heights[m] = minima[a];
+
+			// a keeps the merged cluster, b leaves the queue
+			for(int k = 0; k < n; k++) {
+				if(ids[k] < 0 || k == a || k == b) continue;
+				double dist = weighted ? (get(a, k) + get(b, k)) / 2
+						: (sizes[a] * get(a, k) + sizes[b] * get(b, k)) / (sizes[a] + sizes[b]);
+				set(a, k, dist);
+			}
+			ids[b] = -1;
+			remove(b);
+			sizes[a] += sizes[b];
+			ids[a] = n + m;
+
+			// the merged cluster is the last one, it is a candidate for all others
+			neighbours[a] = -1; minima[a] = Double.POSITIVE_INFINITY;
+			siftDown(positions[a]);
+			for(int k = 0; k < n; k++) {
+				if(ids[k] < 0 || k == a || get(k, a) >= minima[k]) continue;
+				neighbours[k] = a; neighbourIds[k] = ids[a];
+				minima[k] = get(k, a);
+				siftUp(positions[k]);
+			}
+		}
+	}
+
+	/** Searches the nearest cluster after a cluster, the first of equal ones
+	 * @param i Row of the cluster
+	 */
+	private void findNeighbour(int i) {
+		int best = -1;
+		double min = Double.POSITIVE_INFINITY;
+		for(int k = 0; k < n; k++) {
+			if(ids[k] <= ids[i]) continue;
+			double dist = get(i, k);
+			if(best < 0 || dist < min || (dist == min && ids[k] < ids[best])) {
+				min = dist;
+				best = k;
+			}
+		}
+		neighbours[i] = best; minima[i] = min;
+		if(best >= 0) neighbourIds[i] = ids[best];
+	}
+
+	/** Returns the current distance of two rows from the lower triangle
+	 * @param i The first row
+	 * @param j The second row, not i
+	 * @return The distance
+	 */
+	private double get(int i, int j) {
+		return (i > j) ? distances[i][j] : distances[j][i];
+	}
+
+	/** Overwrites the distance of two rows in the lower triangle
+	 * @param i The first row
+	 * @param j The second row, not i
+	 * @param dist The distance
+	 */
+	private void set(int i, int j, double dist) {
+		if(i > j) distances[i][j] = dist;
+		else distances[j][i] = dist;
+	}
+
+	/** Compares two rows by the distance to their neighbours and their ids
+	 * @param i The first row
+	 * @param j The second row
+	 * @return TRUE if the first row comes before the second one
+	 */
+	private boolean before(int i, int j) {
+		return minima[i] < minima[j] || (minima[i] == minima[j] && ids[i] < ids[j]);
+	}
+
+	/** Removes a row from the queue
+	 * @param i The row
+	 */
+	private void remove(int i) {
+		int p = positions[i];
+		size--;
+		if(p == size) return;
+		int moved = heap[size];
+		heap[p] = moved; positions[moved] = p;
+		siftUp(p);
+		siftDown(positions[moved]);
+	}
+
+	/** Moves an entry of the heap towards the front
+	 * @param p Position of the entry
+	 */
+	private void siftUp(int p) {
+		int i = heap[p];
+		while(p > 0 && before(i, heap[(p - 1) / 2])) {
+			heap[p] = heap[(p - 1) / 2]; positions[heap[p]] = p;
+			p = (p - 1) / 2;
+		}
+		heap[p] = i; positions[i] = p;
+	}
+
+	/** Moves an entry of the heap towards the back
+	 * @param p Position of the entry
+	 */
+	private void siftDown(int p) {
+		int i = heap[p];
+		while(2 * p + 1 < size) {
+			int c = 2 * p + 1;
+			if(c + 1 < size && before(heap[c+1], heap[c])) c++;
+			if(!before(heap[c], i)) break;
+			heap[p] = heap[c]; positions[heap[p]] = p;
+			p = c;
+		}
+		heap[p] = i; positions[i] = p;
+	}
+}
@@ -2,7 +2,15 @@ package cthoelken;
 
 import gui.AlgorithmParameter;
 import gui.BioinfAlgorithm;
+import java.io.IOException;
+import java.security.InvalidParameterException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
 import java.util.Vector;
 
  /**
@@ -14,14 +22,31 @@ import java.util.Vector;
   */
 public class NeedlemanWunsch extends BioinfAlgorithm {
 
+	static final int UP = 1;		// pointer to the cell above, a gap in sequence 2
+	static final int LEFT = 2;		// pointer to the cell to the left, a gap in sequence 1
+	static final int DIAG = 4;		// pointer to the diagonal cell, a match or mismatch
+	
 	protected String seq1;
 	protected String seq2;
+	protected byte[] code1;		// encoded sequence 1, position 0 is the border
+	protected byte[] code2;		// encoded sequence 2, position 0 is the border
 	protected boolean usePAM;
 	protected double gapCosts;
 	protected boolean randomBackTrace;
 	protected SubstitutionMatrix omega;
 	protected CostMatrix M;
 	protected LinkedList<Alignment> algnmts = new LinkedList<Alignment>();
+	protected long linearSpaceThreshold = 1L << 22;	// matrix cells
+	protected int bandWidth = -1;		// fixed half width of the band, -1 for none
+	protected int bandMargin = -1;		// margin of the automatic band, -1 for none
+	protected boolean verifyBand = false;
+	protected int tileSize = 0;		// edge length of parallel tiles, 0 for sequential
+	
+	// workspace of scoreOnly(), grown on demand and reused by later calls
+	private double[][] rows = new double[2][0];
+	private double[][] profiles = new double[EncodedSequence.SIZE][0];
+	private int[][] intRows = new int[2][0];
+	private int[][] intProfiles = new int[EncodedSequence.SIZE][0];
 
 	 /**
 	  * Constructor which generates an empty vector of parameters of the needed 
@@ -81,7 +106,8 @@ public class NeedlemanWunsch extends BioinfAlgorithm {
 				"to pairwise alignment with the help of dynamic programming.");
 	}
 	
-	/** Get the score of two Strings from external algorithms
+	/** Get the score of two Strings from external algorithms. No cost matrix
+	 * is built since there is nothing to backtrack.
 	 * @param s1 Sequence string 1
 	 * @param s2 sequence string 2
 	 * @param usePAM Use PAM for substitution
@@ -89,13 +115,63 @@ public class NeedlemanWunsch extends BioinfAlgorithm {
 	 * @return Score of the alignment
 	 */
 	public double getScore(String s1, String s2, boolean usePAM, double gapCosts) {
-		seq1 = s1; seq2 = s2; this.usePAM = usePAM; this.gapCosts = gapCosts;
+		return getScore(new EncodedSequence(s1), new EncodedSequence(s2), usePAM, gapCosts);
+	}
+	
+	/** Get the score of two encoded sequences from external algorithms
+	 * @param s1 Encoded sequence 1
+	 * @param s2 Encoded sequence 2
+	 * @param usePAM Use PAM for substitution
+	 * @param gapCosts Gap costs for the alignment
+	 * @return Score of the alignment
+	 */
+	public double getScore(EncodedSequence s1, EncodedSequence s2, boolean usePAM, double gapCosts) {
+		seq1 = s1.toString(); seq2 = s2.toString(); code1 = s1.codes; code2 = s2.codes;
+		this.usePAM = usePAM; this.gapCosts = gapCosts;
 		omega = new SubstitutionMatrix(usePAM, gapCosts);
-		M = new CostMatrix(seq1.length()+1, seq2.length()+1);
-		return calculate();
+		return scoreOnly();
 	}
 	
-	/** Get the Alignment of two strings from external algorithms
+	/** Get the scores of every sequence of one group against every sequence
+	 * of another. With integral costs the second group is cut into batches
+	 * of lanes sequences, which are aligned in lockstep against each sequence
+	 * of the first group, see BatchNeedlemanWunsch. Otherwise every pair is
+	 * scored by getScore().
+	 * @param s1 The first group
+	 * @param s2 The second group
+	 * @param usePAM Use PAM for substitution
+	 * @param gapCosts Gap costs for the alignments
+	 * @param lanes Number of sequences per batch, 64 keeps the vector units busy
+	 * @return The score of s1[i] against s2[j] at [i][j]
+	 */
+	public double[][] getScores(EncodedSequence[] s1, EncodedSequence[] s2, boolean usePAM,
+			double gapCosts, int lanes) {
+		if(lanes < 1) throw new IllegalArgumentException("At least one lane is needed!");
+		this.usePAM = usePAM; this.gapCosts = gapCosts;
+		omega = new SubstitutionMatrix(usePAM, gapCosts);
+		int n = 0, m = 0;
+		for(int i = 0; i < s1.length; i++) n = Math.max(n, s1[i].length());
+		for(int j = 0; j < s2.length; j++) m = Math.max(m, s2[j].length());
+		double[][] scores = new double[s1.length][s2.length];
+		if(!BatchNeedlemanWunsch.isFeasable(omega, gapCosts, n + m)) {
+			for(int i = 0; i < s1.length; i++)
+				for(int j = 0; j < s2.length; j++) scores[i][j] = getScore(s1[i], s2[j], usePAM, gapCosts);
+			return scores;
+		}
+		for(int from = 0; from < s2.length; from += lanes) {
+			EncodedSequence[] batch = Arrays.copyOfRange(s2, from, Math.min(from + lanes, s2.length));
+			BatchNeedlemanWunsch aligner = new BatchNeedlemanWunsch(omega, (int) gapCosts, batch);
+			for(int i = 0; i < s1.length; i++) {
+				int[] batchScores = aligner.score(s1[i]);
+				for(int l = 0; l < batch.length; l++) scores[i][from + l] = batchScores[l];
+			}
+		}
+		return scores;
+	}
+
+	/** Get the Alignment of two strings from external algorithms. If the cost
+	 * matrix would exceed the linear space threshold, Hirschberg's linear space
+	 * approach is used instead.
 	 * @param s1 Sequence string 1
 	 * @param s2 sequence string 2
 	 * @param usePAM Use PAM for substitution
@@ -103,96 +179,505 @@ public class NeedlemanWunsch extends BioinfAlgorithm {
 	 * @return The actual alignment
 	 */
 	public Alignment getAlignment(String s1, String s2, boolean usePAM, double gapCosts) {
-		seq1 = s1; seq2 = s2; this.usePAM = usePAM; this.gapCosts = gapCosts;
+		return getAlignment(new EncodedSequence(s1), new EncodedSequence(s2), usePAM, gapCosts);
+	}
+	
+	/** Get the Alignment of two encoded sequences from external algorithms
+	 * @param s1 Encoded sequence 1
+	 * @param s2 Encoded sequence 2
+	 * @param usePAM Use PAM for substitution
+	 * @param gapCosts Gap costs for the alignment
+	 * @return The actual alignment
+	 */
+	public Alignment getAlignment(EncodedSequence s1, EncodedSequence s2, boolean usePAM, double gapCosts) {
+		seq1 = s1.toString(); seq2 = s2.toString(); code1 = s1.codes; code2 = s2.codes;
+		this.usePAM = usePAM; this.gapCosts = gapCosts;
 		randomBackTrace = true;
 		omega = new SubstitutionMatrix(usePAM, gapCosts);
-		M = new CostMatrix(seq1.length()+1, seq2.length()+1);
-		calculate(); backtrack(seq1.length()-1, seq2.length()-1, new Alignment(2));
+		if(exceedsThreshold())
+			return new Hirschberg(omega, gapCosts).align(seq1, seq2);
+		calculate(); backtrack();
 		return algnmts.getFirst();
 	}
 	
-	/** Calculates the costmatrix
+	/** Get an optimal alignment of two encoded sequences as compact edit
+	 * script, built directly from the traceback without alignment strings
+	 * @param s1 Encoded sequence 1
+	 * @param s2 Encoded sequence 2
+	 * @param usePAM Use PAM for substitution
+	 * @param gapCosts Gap costs for the alignment
+	 * @return The first optimal alignment as edit script with its score
+	 */
+	public EditScript getEditScript(EncodedSequence s1, EncodedSequence s2, boolean usePAM, 
+			double gapCosts) {
+		seq1 = s1.toString(); seq2 = s2.toString(); code1 = s1.codes; code2 = s2.codes;
+		this.usePAM = usePAM; this.gapCosts = gapCosts;
+		omega = new SubstitutionMatrix(usePAM, gapCosts);
+		if(exceedsThreshold())
+			return new Hirschberg(omega, gapCosts).alignScript(seq1, seq2);
+		calculate();
+		return firstScript(traceback(seq1, seq2, M), M.score());
+	}
+	
+	/** Checks whether the cost matrix of the current sequences would exceed
+	 * the linear space threshold
+	 * @return TRUE if the linear space approach has to be used
+	 */
+	private boolean exceedsThreshold() {
+		int[] band = bandLimits(seq1.length(), seq2.length());
+		long cells = (long) (seq1.length()+1) * ((band == null) ? seq2.length()+1 : band[1]-band[0]+1);
+		return cells > linearSpaceThreshold;
+	}
+	
+	/** Takes the first path of a traceback as edit script
+	 * @param trace The traceback over a filled matrix
+	 * @param score The optimal score
+	 * @return The edit script with the score
+	 */
+	static EditScript firstScript(Traceback trace, double score) {
+		EditScript script = trace.nextScript();
+		script.score = score;
+		return script;
+	}
+	
+	/** Enumerates the co-optimal alignments of two strings lazily
+	 * @param s1 Sequence string 1
+	 * @param s2 sequence string 2
+	 * @param usePAM Use PAM for substitution
+	 * @param gapCosts Gap costs for the alignment
+	 * @param limit Maximal number of alignments
+	 * @return The alignments, each iterator starts with the first one again
+	 */
+	public Iterable<Alignment> getAlignments(String s1, String s2, boolean usePAM, 
+			double gapCosts, int limit) {
+		return getAlignments(new EncodedSequence(s1), new EncodedSequence(s2), usePAM, 
+				gapCosts, limit);
+	}
+	
+	/** Enumerates the co-optimal alignments of two encoded sequences lazily.
+	 * The cost matrix is filled once, afterwards every alignment is generated
+	 * on demand when the iterator reaches it, keeping only the current path in
+	 * memory. So the first alignments are available without generating all.
+	 * @param s1 Encoded sequence 1
+	 * @param s2 Encoded sequence 2
+	 * @param usePAM Use PAM for substitution
+	 * @param gapCosts Gap costs for the alignment
+	 * @param limit Maximal number of alignments
+	 * @return The alignments, each iterator starts with the first one again
+	 */
+	public Iterable<Alignment> getAlignments(EncodedSequence s1, EncodedSequence s2, 
+			boolean usePAM, double gapCosts, final int limit) {
+		fill(s1, s2, usePAM, gapCosts);
+		final String a = seq1, b = seq2;
+		final CostMatrix D = M;
+		return new Iterable<Alignment>() {
+			public Iterator<Alignment> iterator() {
+				return traceback(a, b, D).limit(limit);
+			}
+		};
+	}
+	
+	/** Counts the co-optimal alignments of two encoded sequences exactly
+	 * @param s1 Encoded sequence 1
+	 * @param s2 Encoded sequence 2
+	 * @param usePAM Use PAM for substitution
+	 * @param gapCosts Gap costs for the alignment
+	 * @return Number of optimal alignments
+	 */
+	public BigInteger countAlignments(EncodedSequence s1, EncodedSequence s2, 
+			boolean usePAM, double gapCosts) {
+		fill(s1, s2, usePAM, gapCosts);
+		return traceback(seq1, seq2, M).count();
+	}
+	
+	/** Draws optimal alignments of two encoded sequences uniformly and
+	 * independently among all co-optimal ones. After counting the paths
+	 * once, every sample takes a single walk through the matrix.
+	 * @param s1 Encoded sequence 1
+	 * @param s2 Encoded sequence 2
+	 * @param usePAM Use PAM for substitution
+	 * @param gapCosts Gap costs for the alignment
+	 * @param k Number of samples
+	 * @param seed Seed of the random choices, equal seeds give equal samples
+	 * @return The sampled alignments, possibly with repetitions
+	 */
+	public List<Alignment> sampleAlignments(EncodedSequence s1, EncodedSequence s2, 
+			boolean usePAM, double gapCosts, int k, long seed) {
+		fill(s1, s2, usePAM, gapCosts);
+		return sample(traceback(seq1, seq2, M), k, seed);
+	}
+	
+	/** Sets the sequences and costs and fills the cost matrix
+	 * @param s1 Encoded sequence 1
+	 * @param s2 Encoded sequence 2
+	 * @param usePAM Use PAM for substitution
+	 * @param gapCosts Gap costs for the alignment
+	 */
+	private void fill(EncodedSequence s1, EncodedSequence s2, boolean usePAM, double gapCosts) {
+		seq1 = s1.toString(); seq2 = s2.toString(); code1 = s1.codes; code2 = s2.codes;
+		this.usePAM = usePAM; this.gapCosts = gapCosts;
+		omega = new SubstitutionMatrix(usePAM, gapCosts);
+		calculate();
+	}
+	
+	/** Draws uniform samples from a traceback
+	 * @param trace The traceback over a filled matrix
+	 * @param k Number of samples
+	 * @param seed Seed of the random choices
+	 * @return The sampled alignments
+	 */
+	static List<Alignment> sample(Traceback trace, int k, long seed) {
+		if(k < 0) throw new IllegalArgumentException("Number of samples must not be negative!");
+		Random random = new Random(seed);
+		List<Alignment> samples = new ArrayList<Alignment>(k);
+		for(int i = 0; i < k; i++) samples.add(trace.sample(random));
+		return samples;
+	}
+	
+	/** Sets the number of cost matrix cells above which getAlignment switches
+	 * to the linear space approach
+	 * @param cells Maximal number of cells of the quadratic cost matrix
+	 */
+	public void setLinearSpaceThreshold(long cells) {
+		if(cells < 0) throw new InvalidParameterException("Threshold must not be negative!");
+		linearSpaceThreshold = cells;
+	}
+	
+	/** Fills full cost matrices in parallel, tile by tile along the anti-
+	 * diagonals. The results are identical to the sequential fill.
+	 * @param size Edge length of a tile in cells, 0 for a sequential fill
+	 */
+	public void setTileSize(int size) {
+		if(size < 0) throw new InvalidParameterException("Tile size must not be negative!");
+		tileSize = size;
+	}
+	
+	/** Restricts the cost matrices to the diagonals -width &lt;= y-x &lt;= width.
+	 * The band is widened where needed to contain the last cell.
+	 * @param width Half width of the band, negative to switch banding off
+	 */
+	public void setBandWidth(int width) {
+		bandWidth = (width < 0) ? -1 : width;
+		bandMargin = -1;
+	}
+	
+	/** Restricts the cost matrices to the diagonals between the first and the
+	 * last cell plus a margin on both sides, so the band adapts to the
+	 * length difference of every pair.
+	 * @param margin Extra diagonals on both sides, negative to switch banding off
+	 */
+	public void setAutoBand(int margin) {
+		bandMargin = (margin < 0) ? -1 : margin;
+		bandWidth = -1;
+	}
+	
+	/** If set, an optimal path touching the edge of the band causes the band to
+	 * be widened and the matrices to be recomputed, until the path stays
+	 * inside or the band covers the full matrix. This only catches paths that
+	 * want to leave the band. A verified result can still be suboptimal, also
+	 * with linear gaps, if a better path lies entirely outside the band, e.g.
+	 * FCAAEG and GCAFC at width 2 score 2 instead of 7. Only a band covering
+	 * the full matrix guarantees the optimum.
+	 * @param verify TRUE to verify banded results
+	 */
+	public void setBandVerification(boolean verify) {
+		verifyBand = verify;
+	}
+	
+	/** Computes the diagonals of the band for two sequences
+	 * @param n Length of sequence 1
+	 * @param m Length of sequence 2
+	 * @return Lowest and highest diagonal y-x of the band, null if no band is
+	 * set or the band covers the full matrix
+	 */
+	protected int[] bandLimits(int n, int m) {
+		if(bandWidth >= 0) return clipBand(Math.min(-bandWidth, m-n), Math.max(bandWidth, m-n), n, m);
+		if(bandMargin >= 0) return clipBand(Math.min(0, m-n) - bandMargin, 
+				Math.max(0, m-n) + bandMargin, n, m);
+		return null;
+	}
+	
+	/** Doubles the width of a band
+	 * @param band Lowest and highest diagonal of the band
+	 * @param n Length of sequence 1
+	 * @param m Length of sequence 2
+	 * @return The wider band, null if it covers the full matrix
+	 */
+	protected static int[] widenBand(int[] band, int n, int m) {
+		int width = band[1] - band[0] + 1;
+		return clipBand(band[0] - width, band[1] + width, n, m);
+	}
+	
+	/** Clips a band to the matrix
+	 * @param lower Lowest diagonal
+	 * @param upper Highest diagonal
+	 * @param n Length of sequence 1
+	 * @param m Length of sequence 2
+	 * @return Lowest and highest diagonal, null if the band covers the full matrix
+	 */
+	private static int[] clipBand(int lower, int upper, int n, int m) {
+		if(lower <= -n && upper >= m) return null;
+		return new int[] {Math.max(lower, -n), Math.min(upper, m)};
+	}
+	
+	/** Checks whether the alignment can be computed with integer scores
+	 * @return TRUE if all costs are integral and no score can overflow
+	 */
+	private boolean useIntegers() {
+		return omega.isIntegral() && Util.fitsInt(seq1.length() + seq2.length() + 2, 
+				omega.getMaxAbsScore());
+	}
+	
+	/** Creates and calculates the costmatrix, with integers if possible
 	 * @return Returns the score of the alignment
 	 */
 	private double calculate() {
 		
 		seq1 = "#" + seq1; seq2 = "#" + seq2; //increase sequence length, disregarded afterwards
 		
-		// fill the cost matrix row-wise
-		for(int i=0; i<seq1.length(); i++) {
-			for(int j=0; j<seq2.length(); j++) {
-				if(!(i==0 && j==0))					
-					M.set(i, j, Util.maxValue(M.get(i, j-1) + gapCosts,
-							M.get(i-1, j) + gapCosts, M.get(i-1, j-1)
-							+ omega.getScore(seq1.charAt(i), seq2.charAt(j))));
-			}
+		int[] band = bandLimits(seq1.length()-1, seq2.length()-1);
+		while(band != null) {
+			calculateBanded(band[0], band[1]);
+			if(!verifyBand || !touchesBandEdge((BandedCostMatrix) M)) return M.score();
+			band = widenBand(band, seq1.length()-1, seq2.length()-1);
 		}
+		
+		if(useIntegers()) return calculateInt();
+		
+		final CostMatrix2D D = new CostMatrix2D(seq1.length(), seq2.length());
+		D.recordPointers();
+		M = D;
+		Wavefront.fill(new Wavefront.Tile() {
+			public void fill(int rowFrom, int rowTo, int colFrom, int colTo) {
+				fillTile(D, rowFrom, rowTo, colFrom, colTo);
+			}
+		}, seq1.length(), seq2.length(), tileSize);
 		return M.score();
 	}
 	
-
-	/** Backtracks the cost matrix for feasable paths
-	 * @param x x-offset
-	 * @param y y-offset
-	 * @param algn The alginment so far, starts with empty alignment
+	/** Fills a rectangular part of the cost matrix row-wise, the border needs
+	 * no special cases
+	 * @param D The cost matrix
+	 * @param rowFrom First row
+	 * @param rowTo Row behind the last one
+	 * @param colFrom First column
+	 * @param colTo Column behind the last one
 	 */
-	private void backtrack(int x, int y, Alignment algn) {
-		
-		if(x < 0 || y < 0) return;	// we are out of bounds, shouldn't happen
-		
-		char[] column = new char[2];
-		char[] match = new char[1];
+	private void fillTile(CostMatrix2D D, int rowFrom, int rowTo, int colFrom, int colTo) {
+		double[] m = D.cells;
+		byte[] p = D.pointers;
+		double[] scores = omega.table;
+		int up = D.stride;		// offset to the cell above in the flat array
+		int idx, row;
+		double ins, del, sub;
 		
-		if(x == 0 && y == 0) {	// we are done, great!
-			algnmts.add(algn);
-			return;
+		for(int i=rowFrom; i<rowTo; i++) {
+			idx = D.index(i, colFrom);
+			row = code1[i] * EncodedSequence.SIZE;	// scores of residue i
+			for(int j=colFrom; j<colTo; j++, idx++) {
+				if(!(i==0 && j==0)) {
+					ins = m[idx-up] + gapCosts; del = m[idx-1] + gapCosts;
+					sub = m[idx-up-1] + scores[row + code2[j]];
+					m[idx] = Util.maxValue(del, ins, sub);
+					p[idx] = pointers(m[idx] == ins, m[idx] == del, m[idx] == sub);
+				}
+			}
 		}
+	}
+
+	/** Calculates the costmatrix with integer scores
+	 * @return Returns the score of the alignment
+	 */
+	private double calculateInt() {
+		final IntCostMatrix2D D = new IntCostMatrix2D(seq1.length(), seq2.length());
+		D.recordPointers();
+		M = D;
+		Wavefront.fill(new Wavefront.Tile() {
+			public void fill(int rowFrom, int rowTo, int colFrom, int colTo) {
+				fillTile(D, rowFrom, rowTo, colFrom, colTo);
+			}
+		}, seq1.length(), seq2.length(), tileSize);
+		return M.score();
+	}
+	
+	/** Integer version of fillTile()
+	 * @param D The cost matrix
+	 * @param rowFrom First row
+	 * @param rowTo Row behind the last one
+	 * @param colFrom First column
+	 * @param colTo Column behind the last one
+	 */
+	private void fillTile(IntCostMatrix2D D, int rowFrom, int rowTo, int colFrom, int colTo) {
+		int[] m = D.cells;
+		byte[] p = D.pointers;
+		int[] scores = omega.intTable;
+		int up = D.stride;
+		int gap = (int) gapCosts;
+		int idx, row, ins, del, sub;
 		
-		int[] psbl = {0, 0, 0};
+		for(int i=rowFrom; i<rowTo; i++) {
+			idx = D.index(i, colFrom);
+			row = code1[i] * EncodedSequence.SIZE;
+			for(int j=colFrom; j<colTo; j++, idx++) {
+				if(!(i==0 && j==0)) {
+					ins = m[idx-up] + gap; del = m[idx-1] + gap;
+					sub = m[idx-up-1] + scores[row + code2[j]];
+					m[idx] = Math.max(Math.max(del, ins), sub);
+					p[idx] = pointers(m[idx] == ins, m[idx] == del, m[idx] == sub);
+				}
+			}
+		}
+	}
+	
+	/** Calculates the cost matrix within a band of diagonals only
+	 * @param lower Lowest diagonal y-x of the band
+	 * @param upper Highest diagonal y-x of the band
+	 */
+	private void calculateBanded(int lower, int upper) {
+		BandedCostMatrix D = new BandedCostMatrix(seq1.length(), seq2.length(), lower, upper);
+		M = D;
+		D.recordPointers();
+		double[] m = D.cells;
+		byte[] p = D.pointers;
+		double[] scores = omega.table;
+		int up = D.stride - 1;	// offset to the cell above, the diagonal is one further
+		int idx, row;
+		double ins, del, sub;
 		
-		// insertion
-		if(M.get(x, y) == M.get(x-1, y) + gapCosts) psbl[0] = 1;
+		for(int i=0; i<seq1.length(); i++) {
+			idx = D.index(i, D.first(i));
+			row = code1[i] * EncodedSequence.SIZE;
+			for(int j=D.first(i); j<=D.last(i); j++, idx++) {
+				if(!(i==0 && j==0)) {
+					ins = m[idx-up] + gapCosts; del = m[idx-1] + gapCosts;
+					sub = m[idx-up-1] + scores[row + code2[j]];
+					m[idx] = Util.maxValue(del, ins, sub);
+					p[idx] = pointers(m[idx] == ins, m[idx] == del, m[idx] == sub);
+				}
+			}
+		}
+	}
+	
+	/** Follows one optimal path through a banded cost matrix
+	 * @param D The filled cost matrix
+	 * @return TRUE if the path touches the edge of the band
+	 */
+	private boolean touchesBandEdge(BandedCostMatrix D) {
+		int x = seq1.length()-1, y = seq2.length()-1;
+		while(x > 0 || y > 0) {
+			if(D.onEdge(x, y)) return true;
+			int p = D.getPointers(x, y, 0);
+			if((p & DIAG) != 0) { x--; y--; }
+			else if((p & UP) != 0) x--;
+			else y--;
+		}
+		return false;
+	}
+	
+	/** Calculates the score of the alignment keeping only two rows of the
+	 * cost matrix. The substitution scores against sequence 2 are looked up
+	 * once per distinct residue of sequence 1, so no cell allocates anything.
+	 * The rows and profiles are kept for the next call, so an instance
+	 * scoring many pairs only allocates when a longer sequence comes along.
+	 * @return Returns the score of the alignment
+	 */
+	private double scoreOnly() {
+		if(useIntegers()) return scoreOnlyInt();
 		
-		// deletion, start new thread from there
-		if(M.get(x, y) == M.get(x, y-1) + gapCosts) psbl[1] = 1;
+		if(rows[0].length <= seq2.length())
+			rows = new double[2][seq2.length()+1];
+		double[] prev = rows[0];
+		double[] curr = rows[1];
+		double[] swap, profile;
+		boolean[] built = new boolean[EncodedSequence.SIZE];	// profiles of this pair
 		
-		// match/mismatch, lets carry on
-		if(M.get(x, y) == M.get(x-1, y-1) + omega.getScore(seq1.charAt(x), seq2.charAt(y)))
-			psbl[2] = 1;
+		// first row only consists of gaps
+		prev[0] = 0.0;
+		for(int j = 1; j <= seq2.length(); j++) prev[j] = prev[j-1] + gapCosts;
 		
-		//int num_psbl = psbl[0]+psbl[1]+psbl[2];
-		if(randomBackTrace == true) psbl = Util.chooseRandom(psbl);
-//		if(randomBackTrace && num_psbl > 1) {
-//			int random;
-//			if(num_psbl == 3) {
-//				random = new Random().nextInt(3);
-//				psbl[0] = 0; psbl[1] = 0; psbl[2] = 0; psbl[random] = 1;
-//			}
-//			if(num_psbl == 2) {
-//				random = new Random().nextInt(2);
-//				if(psbl[0] == 1) {
-//					if(psbl[1] == 1) { 
-//						psbl[0] = random; psbl[1] = 1-random;
-//					} else { psbl[0] = random; psbl[2] = 1-random; }
-//				} else { psbl[1] = random; psbl[2] = 1-random; }
-//			}
-//		}
+		// fill the remaining rows, reusing the two arrays
+		for(int i = 1; i <= seq1.length(); i++) {
+			profile = profiles[code1[i]];
+			if(!built[code1[i]]) {
+				if(profile.length <= seq2.length())
+					profile = profiles[code1[i]] = new double[seq2.length()+1];
+				for(int j = 1; j <= seq2.length(); j++)
+					profile[j] = omega.getScore(code1[i], code2[j]);
+				built[code1[i]] = true;
+			}
+			curr[0] = prev[0] + gapCosts;
+			for(int j = 1; j <= seq2.length(); j++)
+				curr[j] = Util.maxValue(curr[j-1] + gapCosts, prev[j] + gapCosts,
+						prev[j-1] + profile[j]);
+			swap = prev; prev = curr; curr = swap;
+		}
+		return prev[seq2.length()];
+	}
+
+	/** Integer version of scoreOnly()
+	 * @return Returns the score of the alignment
+	 */
+	private double scoreOnlyInt() {
+		if(intRows[0].length <= seq2.length())
+			intRows = new int[2][seq2.length()+1];
+		int[] prev = intRows[0];
+		int[] curr = intRows[1];
+		int[] swap, profile;
+		boolean[] built = new boolean[EncodedSequence.SIZE];
+		int gap = (int) gapCosts;
 		
-		match[0] = ' ';
+		prev[0] = 0;
+		for(int j = 1; j <= seq2.length(); j++) prev[j] = prev[j-1] + gap;
 		
-		if(psbl[0] == 1) {
-			column[0] = seq1.charAt(x); column[1] = '_'; 
-			backtrack(x-1, y, algn.addFirst(column, match));
-		}
-		if(psbl[1] == 1) {
-			column[0] = '_'; column[1] = seq2.charAt(y);
-			backtrack(x, y-1, algn.addFirst(column, match));
-		}
-		if(psbl[2] == 1) {
-			column[0] = seq1.charAt(x); column[1] = seq2.charAt(y);
-			match[0] = (seq1.toUpperCase().charAt(x) == seq2.toUpperCase().charAt(y)) ? '|' : '*';
-			backtrack(x-1, y-1, algn.addFirst(column, match));
+		for(int i = 1; i <= seq1.length(); i++) {
+			profile = intProfiles[code1[i]];
+			if(!built[code1[i]]) {
+				if(profile.length <= seq2.length())
+					profile = intProfiles[code1[i]] = new int[seq2.length()+1];
+				for(int j = 1; j <= seq2.length(); j++)
+					profile[j] = omega.intTable[code1[i] * EncodedSequence.SIZE + code2[j]];
+				built[code1[i]] = true;
+			}
+			curr[0] = prev[0] + gap;
+			for(int j = 1; j <= seq2.length(); j++)
+				curr[j] = Math.max(Math.max(curr[j-1] + gap, prev[j] + gap),
+						prev[j-1] + profile[j]);
+			swap = prev; prev = curr; curr = swap;
 		}
+		return prev[seq2.length()];
+	}
+
+	/** Combines the optimal predecessors of a cell to its pointer bits
+	 * @param up Optimal through a gap in sequence 2
+	 * @param left Optimal through a gap in sequence 1
+	 * @param diag Optimal through a match or mismatch
+	 * @return The pointer bits
+	 */
+	static byte pointers(boolean up, boolean left, boolean diag) {
+		return (byte) ((up ? UP : 0) | (left ? LEFT : 0) | (diag ? DIAG : 0));
+	}
+	
+	/** Creates a traceback along the recorded pointers of a cost matrix
+	 * @param s1 Sequence string 1 including the border symbol
+	 * @param s2 Sequence string 2 including the border symbol
+	 * @param D The filled cost matrix
+	 * @return The traceback, starting in the last cell
+	 */
+	private static Traceback traceback(String s1, String s2, final CostMatrix D) {
+		return new Traceback(new String[] {s1, s2}, new int[] {1, 2, 3}, new int[] {0, 0, 0}) {
+			int options(int x, int y, int z, int state) {
+				return D.getPointers(x, y, 0);
+			}
+		};
+	}
+	
+	/** Backtracks the cost matrix along the recorded pointers and adds either
+	 * all optimal alignments or a single random one to the alignment list
+	 */
+	private void backtrack() {
+		Traceback trace = traceback(seq1, seq2, M);
+		if(randomBackTrace) algnmts.add(trace.walk(new Random()));
+		else trace.all(algnmts);
 	}
 	
 	/**
@@ -204,16 +689,33 @@ public class NeedlemanWunsch extends BioinfAlgorithm {
 	 */
 	@Override
 	public String run(Vector<AlgorithmParameter> params) {
-		
-		String retVal = new String("");
+		StringBuilder retVal = new StringBuilder();
+		try {
+			run(params, retVal);
+		} catch(IOException e) { throw new IllegalStateException(e); }
+		return retVal.toString();
+	}
+	
+	/**
+	 * Main method of the algorithm, streaming the output. The alignments are
+	 * written one after the other while the traceback enumerates them.
+	 * 
+	 * @param params The filled out parameters are entered externally.
+	 * @param out Destination of the used parameters, the results and errors
+	 * @throws IOException If the destination fails
+	 */
+	public void run(Vector<AlgorithmParameter> params, Appendable out) throws IOException {
 		
 		  // ##########  PARSE INPUT PARAMETERS FOR ERRORS  ###########
 
 		seq1 = (String) params.elementAt(0).data;
-		if(!Util.isValidSequence(seq1)) return "Sequence 1 is not valid!";
+		if(!Util.isValidSequence(seq1)) { out.append("Sequence 1 is not valid!"); return; }
 		
 		seq2 = (String) params.elementAt(1).data;
-		if(!Util.isValidSequence(seq2)) return "Sequence 2 is not valid!";
+		if(!Util.isValidSequence(seq2)) { out.append("Sequence 2 is not valid!"); return; }
+		
+		code1 = new EncodedSequence(seq1).codes;
+		code2 = new EncodedSequence(seq2).codes;
 		
 		usePAM = (Boolean) params.elementAt(2).data;
 		randomBackTrace = (Boolean) params.elementAt(3).data;
@@ -221,25 +723,39 @@ public class NeedlemanWunsch extends BioinfAlgorithm {
 		try{
 			if(params.elementAt(4).data.getClass() == Double.class)
 				gapCosts = (Double) params.elementAt(4).data;
-			else return "Gap costs are not a valid decimal value!";
-		} catch(Exception e) {return "Gap costs are not a valid decimal value!";}
+			else { out.append("Gap costs are not a valid decimal value!"); return; }
+		} catch(Exception e) { out.append("Gap costs are not a valid decimal value!"); return; }
 		
 		omega = new SubstitutionMatrix(usePAM, gapCosts);
-		M = new CostMatrix(seq1.length()+1, seq2.length()+1);
 		
 		  // ##########  RUN THE PROGRAM  ###########
 		
-		retVal += "\n Maximal Score: " + calculate();
-		
-		backtrack(seq1.length()-1, seq2.length()-1, new Alignment(2));
-		
-		// ### print alignments to return string ###
-		for(int k=0; k<algnmts.size(); k++) 
-			retVal += "\n########### Alignment "+k+":\n"+algnmts.get(k).toString();
+		out.append("\n Maximal Score: ").append(String.valueOf(calculate()));
 		
-		  // returning the algorithm results
-		return retVal;
-	}	
+		// ### print alignments to the destination ###
+		writeAlignments(traceback(seq1, seq2, M), randomBackTrace, 0, out);
+	}
+	
+	/** Writes either all alignments of a traceback or a single random
+	 * one, each with a numbered header
+	 * @param trace The traceback over a filled matrix
+	 * @param random Write only a random alignment
+	 * @param first Number of the first alignment
+	 * @param out Destination of the output
+	 * @throws IOException If the destination fails
+	 */
+	static void writeAlignments(Traceback trace, boolean random, int first, Appendable out) 
+			throws IOException {
+		if(random) {
+			out.append("\n########### Alignment ").append(String.valueOf(first)).append(":\n");
+			AlignmentWriter.writePretty(trace.walk(new Random()), out);
+			return;
+		}
+		for(int k = first; trace.hasNext(); k++) {
+			out.append("\n########### Alignment ").append(String.valueOf(k)).append(":\n");
+			AlignmentWriter.writePretty(trace.next(), out);
+		}
+	}
 
 	/**
 	 * Creates an instance of this class and calls the run method using the
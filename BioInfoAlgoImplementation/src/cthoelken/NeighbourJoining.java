@@ -0,0 +1,229 @@
+package cthoelken;
+
+import java.util.Arrays;
+
+/**
+ * Guide trees by neighbour joining with the search pruning of RapidNJ. Every
+ * row of the distance matrix is kept sorted by distance. The pair minimising
+ *   Q(i,j) = (r-2) d(i,j) - R(i) - R(j)
+ * is searched row by row along the sorted entries. As R(j) is at most the
+ * largest row sum, the scan of a row stops as soon as
+ *   (r-2) d(i,j) - R(i) - max R
+ * reaches the best Q found so far, which skips most of the matrix.
+ *
+ * Distances between two remaining nodes never change, a join only adds the
+ * row of the new node. So a sorted row stays valid, its entries of joined
+ * nodes are skipped lazily. Only the lower triangle of the matrix is
+ * overwritten, its upper triangle keeps the distances of the sequences for
+ * the alignment. The tree is rooted at the last join and built
+ * from the same Clusters as by PGMA, so Cluster.align can consume it.
+ *
+ * @author Clemens Thoelken
+ *
+ */
+public class NeighbourJoining {
+
+	private int n;					// number of leaves, also number of slots
+	private double[][] distances;	// rows of distances, a joined node reuses a slot
+	private int[] slotOf;			// per node id its slot, -1 once joined
+	private int[] idOf;				// per slot its node id
+	private double[] sums;			// per slot the sum R of its distances
+	private double[][] rowDists;	// per slot the sorted distances
+	private int[][] rowIds;			// per slot the node ids of the sorted distances
+	private KmerDistance kmers;		// alignment-free distances, null to align
+
+	/** Sets the k-mer distance for the guide tree, it replaces the alignment
+	 * scores of all sequence pairs
+	 * @param kmers The k-mer distance, null to align the pairs
+	 * @return This instance
+	 */
+	public NeighbourJoining setKmers(KmerDistance kmers) {
+		this.kmers = kmers;
+		return this;
+	}
+	
+	/** Calculates a tree from the sequences of an alignment, the root keeps
+	 * the distances for the alignment along the tree
+	 * @param sequences Input alignment with all sequences
+	 * @param usePAM Use PAM substitution
+	 * @param gapCosts Gap costs for the calculation
+	 * @return Returns the tree as a cluster
+	 */
+	public Cluster calculate(Alignment sequences, boolean usePAM, double gapCosts) {
+		int n = sequences.size();
+		EncodedSequence[] encoded = new EncodedSequence[n];
+		Cluster[] leaves = new Cluster[n];
+		for(int i = 0; i < n; i++) {
+			encoded[i] = new EncodedSequence(sequences.getSeq(i));
+			leaves[i] = new Cluster(i, sequences.getSeq(i));
+		}
+		double[][] D = new DistanceMatrixBuilder(usePAM, gapCosts).setKmers(kmers).build(encoded);
+		DistanceStore store = new DistanceStore(encoded, usePAM, gapCosts, kmers).keep(D);
+		Cluster root = join(D, leaves);
+		root.distances = store;
+		return root;
+	}
+
+	/** Joins the leaves into a tree
+	 * @param distances The n rows of the symmetric distances, only the lower
+	 * triangle is overwritten
+	 * @param leaves The n leaf Clusters
+	 * @return The root of the tree
+	 */
+	Cluster join(double[][] distances, Cluster[] leaves) {
+		n = leaves.length;
+		if(n < 1 || distances.length != n)
+			throw new IllegalArgumentException("Distance matrix does not have a row per leaf!");
+		this.distances = distances;
+		slotOf = new int[2*n-1]; idOf = new int[n];
+		sums = new double[n];
+		rowDists = new double[n][]; rowIds = new int[n][];
+		Cluster[] nodes = Arrays.copyOf(leaves, 2*n-1);
+		Arrays.fill(slotOf, -1);
+		for(int i = 0; i < n; i++) {
+			slotOf[i] = i; idOf[i] = i;
+			for(int k = 0; k < n; k++) if(k != i) sums[i] += distances[i][k];
+		}
+		for(int i = 0; i < n; i++) sortRow(i);
+
+		for(int r = n, id = n; r > 1; r--, id++) {
+			int[] pair = (r <= 3) ? lowestPair() : closestPair(r);
+			int a = Math.min(pair[0], pair[1]), b = Math.max(pair[0], pair[1]);
+			nodes[id] = new Cluster(nodes[idOf[a]], nodes[idOf[b]], get(a, b));
+			merge(a, b, id);
+		}
+		return nodes[2*n-2];
+	}
+
+	/** Searches the pair of slots with the smallest Q, pruning every sorted row
+	 * by the upper bound of the row sums
+	 * @param r Number of remaining nodes
+	 * @return The two slots
+	 */
+	private int[] closestPair(int r) {
+		double maxSum = Double.NEGATIVE_INFINITY;
+		for(int i = 0; i < n; i++)
+			if(idOf[i] >= 0 && sums[i] > maxSum) maxSum = sums[i];
+		double best = Double.POSITIVE_INFINITY;
+		int[] pair = new int[2];
+		for(int i = 0; i < n; i++) {
+			if(idOf[i] < 0) continue;
+			double[] dists = rowDists[i];
+			int[] ids = rowIds[i];
+			for(int e = 0; e < dists.length; e++) {
+				if((r - 2) * dists[e] - sums[i] - maxSum >= best) break;
+				int j = slotOf[ids[e]];
+				if(j < 0) continue;			// joined in the meantime
+				double q = (r - 2) * dists[e] - sums[i] - sums[j];
+				if(q < best) {
+					best = q;
+					pair[0] = i; pair[1] = j;
+				}
+			}
+		}
+		return pair;
+	}
+
+	/** Finds the two lowest remaining slots. With three nodes left all pairs
+	 * have the same Q, with two there is no choice.
+	 * @return The two slots
+	 */
+	private int[] lowestPair() {
+		int[] pair = new int[2];
+		for(int i = 0, k = 0; i < n; i++)
+			if(idOf[i] >= 0 && k < 2) pair[k++] = i;
+		return pair;
+	}
+
+	/** Joins two slots into a new node which takes over slot a. The distances
+	 * to the new node are (d(a,k) + d(b,k) - d(a,b)) / 2.
+	 * @param a First slot, keeps the new node
+	 * @param b Second slot, is released
+	 * @param id Node id of the new node
+	 */
+	private void merge(int a, int b, int id) {
+		double dab = get(a, b);
+		slotOf[idOf[a]] = -1; slotOf[idOf[b]] = -1;
+		idOf[b] = -1;
+		idOf[a] = id; slotOf[id] = a;
+		sums[a] = 0;
+		for(int k = 0; k < n; k++) {
+			if(idOf[k] < 0 || k == a) continue;
+			double dist = (get(a, k) + get(b, k) - dab) / 2;
+			sums[k] += dist - get(a, k) - get(b, k);
+			sums[a] += dist;
+			set(a, k, dist);
+		}
+		rowDists[b] = null; rowIds[b] = null;
+		sortRow(a);
+	}
+
+	/** Sorts the distances of a slot to all other remaining slots
+	 * @param a The slot
+	 */
+	private void sortRow(int a) {
+		int count = 0;
+		for(int k = 0; k < n; k++) if(idOf[k] >= 0 && k != a) count++;
+		double[] dists = new double[count];
+		int[] ids = new int[count];
+		for(int k = 0, e = 0; k < n; k++) {
+			if(idOf[k] < 0 || k == a) continue;
+			dists[e] = get(a, k); ids[e++] = idOf[k];
+		}
+		sort(dists, ids, 0, count - 1);
+		rowDists[a] = dists; rowIds[a] = ids;
+	}
+
+	/** Returns the current distance of two slots from the lower triangle
+	 * @param i The first slot
+	 * @param j The second slot, not i
+	 * @return The distance
+	 */
+	private double get(int i, int j) {
+		return (i > j) ? distances[i][j] : distances[j][i];
+	}
+
+	/** Overwrites the distance of two slots in the lower triangle
+	 * @param i The first slot
+	 * @param j The second slot, not i
+	 * @param dist The distance
+	 */
+	private void set(int i, int j, double dist) {
+		if(i > j) distances[i][j] = dist;
+		else distances[j][i] = dist;
+	}
+
+	/** Sorts distances ascending together with their node ids, by quicksort
+	 * on primitive arrays
+	 * @param dists The distances
+	 * @param ids The node ids, moved along with the distances
+	 * @param from First index
+	 * @param to Last index
+	 */
+	private static void sort(double[] dists, int[] ids, int from, int to) {
+		while(to - from > 16) {
+			double pivot = dists[(from + to) >>> 1];
+			int i = from, j = to;
+			while(i <= j) {
+				while(dists[i] < pivot) i++;
+				while(dists[j] > pivot) j--;
+				if(i <= j) {
+					double d = dists[i]; dists[i] = dists[j]; dists[j] = d;
+					int id = ids[i]; ids[i] = ids[j]; ids[j] = id;
+					i++; j--;
+				}
+			}
+			// recursion into the smaller part keeps the stack logarithmic
+			if(j - from < to - i) { sort(dists, ids, from, j); from = i; }
+			else { sort(dists, ids, i, to); to = j; }
+		}
+		for(int i = from + 1; i <= to; i++) {	// insertion sort for short parts
+			double d = dists[i]; int id = ids[i];
+			int j = i - 1;
+			for(; j >= from && dists[j] > d; j--) {
+				dists[j+1] = dists[j]; ids[j+1] = ids[j];
+			}
+			dists[j+1] = d; ids[j+1] = id;
+		}
+	}
+}
@@ -3,7 +3,7 @@ package cthoelken;
 import gui.AlgorithmParameter;
 import gui.BioinfAlgorithm;
 import gui.StringList;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.Vector;
 
  /**
@@ -19,6 +19,7 @@ public class PGMA extends BioinfAlgorithm {
 	private boolean usePAM;
 	private boolean weighted;
 	private double gapCosts;
+	private KmerDistance kmers;		// alignment-free distances, null to align
 
 
 	/**
@@ -71,6 +72,16 @@ public class PGMA extends BioinfAlgorithm {
 	}
 	
 	
+	/** Sets the k-mer distance for the guide tree, it replaces the alignment
+	 * scores of all sequence pairs
+	 * @param kmers The k-mer distance, null to align the pairs
+	 * @return This instance
+	 */
+	public PGMA setKmers(KmerDistance kmers) {
+		this.kmers = kmers;
+		return this;
+	}
+	
 	/** Calculates a tree form a given alignment
 	 * @param sequences Input alignment with all sequences
 	 * @param usePAM Use PAM substitution
@@ -84,38 +95,46 @@ public class PGMA extends BioinfAlgorithm {
 		return calculate();
 	}
 	
-	/** Initialtizes all sequences into Clusters and slusters all untill only one Cluster is left
+	/** Initialtizes all sequences into Clusters and slusters all untill only one Cluster is left.
+	 * The distances of all sequence pairs are computed once in parallel, the
+	 * root keeps them for the alignment along the tree.
 	 * @return The resulting Cluster
 	 */
 	private Cluster calculate() {
-		CostMatrix D = new CostMatrix(sequences.size(), sequences.size());
-		
-		LinkedList<Cluster> nodes = new LinkedList<Cluster>();
-		
-		for(int i = 0; i < sequences.size(); i++)
-			nodes.add(new Cluster(i, sequences.getSeq(i)));
-		
-		while(nodes.size() > 1) {
-			double min = Double.POSITIVE_INFINITY;
-			int iMin = 0; int jMin = 1;
-
-			for(int i = 0; i < nodes.size(); i++) {
-				for(int j = i+1; j < nodes.size(); j++) {
-					D.set(i, j, nodes.get(i).distance(nodes.get(j), weighted, usePAM, gapCosts));
-					if(min > D.get(i, j)) {
-						min = D.get(i, j);
-						iMin = i; jMin = j;
-					}
-				}
-			}
-
-			Cluster temp = new Cluster(nodes.get(iMin), nodes.get(jMin), D.get(iMin, jMin));
-			nodes.remove(iMin); nodes.remove(jMin-1);
-			nodes.add(temp);
+		int n = sequences.size();
+		EncodedSequence[] encoded = new EncodedSequence[n];
+		Cluster[] leaves = new Cluster[n];
+		for(int i = 0; i < n; i++) {
+			encoded[i] = new EncodedSequence(sequences.getSeq(i));
+			leaves[i] = new Cluster(i, sequences.getSeq(i));
 		}
-		
-		return nodes.get(0);
-				
+		double[][] D = new DistanceMatrixBuilder(usePAM, gapCosts).setKmers(kmers).build(encoded);
+		DistanceStore store = new DistanceStore(encoded, usePAM, gapCosts, kmers).keep(D);
+		Cluster root = cluster(D, leaves, weighted);
+		root.distances = store;
+		return root;
+	}
+	
+	/** Clusters the leaves by their distances. The queue of nearest
+	 * neighbours finds the merges of the greedy search for the closest pair,
+	 * in the same order, so the child that comes first in the list of
+	 * remaining nodes becomes the left one.
+	 * @param D The n rows of the symmetric distances, only the lower triangle
+	 * is overwritten
+	 * @param leaves The n leaf Clusters
+	 * @param weighted Use WPGMA
+	 * @return The root of the tree
+	 */
+	static Cluster cluster(double[][] D, Cluster[] leaves, boolean weighted) {
+		int n = leaves.length;
+		if(D.length != n)
+			throw new IllegalArgumentException("Distance matrix does not have a row per leaf!");
+		NearestNeighbourQueue queue = new NearestNeighbourQueue(D, weighted);
+		Cluster[] clusters = Arrays.copyOf(leaves, 2*n-1);
+		for(int m = 0; m < n-1; m++)
+			clusters[n+m] = new Cluster(clusters[queue.first[m]], clusters[queue.second[m]], 
+					queue.heights[m]);
+		return clusters[2*n-2];
 	}
 	
 	/**
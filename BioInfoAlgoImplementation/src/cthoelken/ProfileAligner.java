@@ -0,0 +1,138 @@
+package cthoelken;
+
+/**
+ * Aligns two sub-alignments by their profiles instead of a single pair of
+ * their sequences. Every column becomes the frequencies of its residues and
+ * its fraction of gaps. Two columns score the average over all pairs of
+ * their symbols, substitution scores for two residues, the gap costs for a
+ * residue against a gap and 0 for two gaps. For the first profile the
+ * column times the substitution matrix is computed once, so a pair of
+ * columns costs one sum over the residues present in the second column,
+ * O(L1*L2*|alphabet|) in total.
+ *
+ * @author Clemens Thoelken
+ *
+ */
+class ProfileAligner {
+
+	private static final byte DIAGONAL = 0, UP = 1, LEFT = 2;
+
+	private SubstitutionMatrix omega;
+	private double gapCosts;
+
+	/** Constructor
+	 * @param omega Substitution matrix used for scoring
+	 * @param gapCosts Linear gap costs
+	 */
+	ProfileAligner(SubstitutionMatrix omega, double gapCosts) {
+		this.omega = omega;
+		this.gapCosts = gapCosts;
+	}
+
+	/** Aligns two groups of rows, all rows of a group have the same length
+	 * @param rows1 Rows of the first sub-alignment
+	 * @param rows2 Rows of the second sub-alignment
+	 * @return Positions of the new gap columns of both groups, in the form of
+	 * Cluster.gapPositions
+	 */
+	int[][] align(String[] rows1, String[] rows2) {
+		int size = EncodedSequence.SIZE;
+		int n = length(rows1), m = length(rows2);
+		double[] gaps1 = new double[n], gaps2 = new double[m];
+		double[] freqs1 = frequencies(rows1, n, gaps1);
+		double[] freqs2 = frequencies(rows2, m, gaps2);
+
+		// column of the first profile times the substitution matrix
+		double[] scores1 = new double[n * size];
+		for(int i = 0; i < n; i++)
+			for(int a = 0; a < size; a++) {
+				double f = freqs1[i * size + a];
+				if(f == 0) continue;
+				for(int b = 0; b < size; b++) scores1[i * size + b] += f * omega.table[a * size + b];
+			}
+		// residues present per column of the second profile
+		int[] start = new int[m+1];
+		for(int j = 0; j < m; j++) {
+			start[j+1] = start[j];
+			for(int b = 0; b < size; b++) if(freqs2[j * size + b] > 0) start[j+1]++;
+		}
+		int[] present = new int[start[m]];
+		for(int j = 0, k = 0; j < m; j++)
+			for(int b = 0; b < size; b++) if(freqs2[j * size + b] > 0) present[k++] = b;
+
+		// Needleman-Wunsch over the columns
+		byte[] trace = new byte[(n+1) * (m+1)];
+		double[] prev = new double[m+1], curr = new double[m+1];
+		for(int j = 1; j <= m; j++) {
+			prev[j] = prev[j-1] + gapCosts * (1 - gaps2[j-1]);
+			trace[j] = LEFT;
+		}
+		for(int i = 1; i <= n; i++) {
+			double open1 = gapCosts * (1 - gaps1[i-1]);		// column i against a gap
+			curr[0] = prev[0] + open1;
+			trace[i * (m+1)] = UP;
+			int row = (i-1) * size;
+			for(int j = 1; j <= m; j++) {
+				double match = gapCosts * ((1 - gaps1[i-1]) * gaps2[j-1] + gaps1[i-1] * (1 - gaps2[j-1]));
+				for(int k = start[j-1]; k < start[j]; k++)
+					match += scores1[row + present[k]] * freqs2[(j-1) * size + present[k]];
+				double diagonal = prev[j-1] + match;
+				double up = prev[j] + open1;
+				double left = curr[j-1] + gapCosts * (1 - gaps2[j-1]);
+				if(diagonal >= up && diagonal >= left) {
+					curr[j] = diagonal; trace[i * (m+1) + j] = DIAGONAL;
+				} else if(up >= left) {
+					curr[j] = up; trace[i * (m+1) + j] = UP;
+				} else {
+					curr[j] = left; trace[i * (m+1) + j] = LEFT;
+				}
+			}
+			double[] swap = prev; prev = curr; curr = swap;
+		}
+
+		// backtrace, the gap columns are found from the end
+		int[] reverse1 = new int[m], reverse2 = new int[n];
+		int count1 = 0, count2 = 0;
+		for(int i = n, j = m; i > 0 || j > 0; ) {
+			byte move = trace[i * (m+1) + j];
+			if(move == DIAGONAL) { i--; j--; }
+			else if(move == UP) { reverse2[count2++] = j; i--; }
+			else { reverse1[count1++] = i; j--; }
+		}
+		int[] positions1 = new int[count1], positions2 = new int[count2];
+		for(int k = 0; k < count1; k++) positions1[k] = reverse1[count1 - 1 - k];
+		for(int k = 0; k < count2; k++) positions2[k] = reverse2[count2 - 1 - k];
+		return new int[][] {positions1, positions2};
+	}
+
+	/** Computes the length of a group of rows
+	 * @param rows The rows
+	 * @return Their common length
+	 */
+	private static int length(String[] rows) {
+		for(int r = 1; r < rows.length; r++)
+			if(rows[r].length() != rows[0].length())
+				throw new IllegalArgumentException("Rows of a sub-alignment differ in length!");
+		return rows[0].length();
+	}
+
+	/** Computes the profile of a group of rows
+	 * @param rows The rows
+	 * @param length Their common length
+	 * @param gaps Receives the fraction of gaps per column
+	 * @return Row after row per column the frequency of every code, 0 for gaps
+	 */
+	private static double[] frequencies(String[] rows, int length, double[] gaps) {
+		int size = EncodedSequence.SIZE;
+		double[] freqs = new double[length * size];
+		double weight = 1.0 / rows.length;
+		for(int r = 0; r < rows.length; r++) {
+			for(int col = 0; col < length; col++) {
+				byte code = EncodedSequence.code(rows[r].charAt(col));
+				if(code == EncodedSequence.GAP || code == EncodedSequence.PAD) gaps[col] += weight;
+				else freqs[col * size + code] += weight;
+			}
+		}
+		return freqs;
+	}
+}
@@ -0,0 +1,235 @@
+package cthoelken;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Guide trees for very many sequences after mBed. Instead of all pairs only
+ * the distances of every sequence to a few seed sequences are computed, by
+ * default log2(n)^2 of them as in mBed, evenly spread over the lengths. Far
+ * fewer seeds cannot tell apart more families than there are seeds. Each sequence
+ * becomes the vector of its distances to the seeds, which needs memory
+ * linear in n. The vectors are split top down by bisecting k-means until the
+ * clusters are small, those are joined by UPGMA on their true distances.
+ * The root keeps the distances of these blocks and the seed vectors, the
+ * alignment along the tree uses the true distances within a block and picks
+ * the pair of two blocks by the vectors, so it needs no further distances.
+ *
+ * @author Clemens Thoelken
+ *
+ */
+public class SeedEmbedding {
+
+	private KmerDistance kmers;		// alignment-free distances, null to align
+	private int seeds;				// number of seeds, 0 for log2(n)^2
+	private int leafSize = 32;		// clusters up to this size are joined by UPGMA
+	private int iterations = 20;	// maximal rounds of k-means per split
+
+	private int t;					// dimension of the vectors
+	private double[] vectors;		// row after row the n*t distances to the seeds
+	private int[] order;			// sequence indices, every cluster a range
+
+	/** Sets the number of seeds
+	 * @param seeds Number of seeds, 0 for log2(n)^2
+	 * @return This instance
+	 */
+	public SeedEmbedding setSeeds(int seeds) {
+		if(seeds < 0) throw new IllegalArgumentException("Number of seeds must not be negative!");
+		this.seeds = seeds;
+		return this;
+	}
+
+	/** Sets the size up to which clusters are joined by UPGMA
+	 * @param size Number of sequences, at least 1
+	 * @return This instance
+	 */
+	public SeedEmbedding setLeafSize(int size) {
+		if(size < 1) throw new IllegalArgumentException("Leaf size must be positive!");
+		leafSize = size;
+		return this;
+	}
+
+	/** Sets the k-mer distance, it replaces the alignment scores
+	 * @param kmers The k-mer distance, null to align the pairs
+	 * @return This instance
+	 */
+	public SeedEmbedding setKmers(KmerDistance kmers) {
+		this.kmers = kmers;
+		return this;
+	}
+
+	/** Calculates a tree from the sequences of an alignment
+	 * @param sequences Input alignment with all sequences
+	 * @param usePAM Use PAM substitution
+	 * @param gapCosts Gap costs for the calculation
+	 * @return Returns the tree as a cluster
+	 */
+	public Cluster calculate(Alignment sequences, boolean usePAM, double gapCosts) {
+		int n = sequences.size();
+		if(n < 1) throw new IllegalArgumentException("No sequences to cluster!");
+		EncodedSequence[] encoded = new EncodedSequence[n];
+		for(int i = 0; i < n; i++)
+			encoded[i] = new EncodedSequence(sequences.getSeq(i));
+		DistanceMatrixBuilder builder = new DistanceMatrixBuilder(usePAM, gapCosts).setKmers(kmers);
+		int[] seedIds = chooseSeeds(encoded);
+		t = seedIds.length;
+		vectors = builder.build(encoded, seedIds);
+		DistanceStore store = new DistanceStore(encoded, usePAM, gapCosts, kmers).embed(vectors, t);
+		order = new int[n];
+		for(int i = 0; i < n; i++) order[i] = i;
+
+		// split top down, the children of a range always come after it
+		ArrayList<int[]> ranges = new ArrayList<int[]>();	// from, to, left, right
+		ArrayList<Double> heights = new ArrayList<Double>();
+		ranges.add(new int[] {0, n, -1, -1});
+		heights.add(0.0);
+		for(int r = 0; r < ranges.size(); r++) {
+			int[] range = ranges.get(r);
+			if(range[1] - range[0] <= leafSize) continue;
+			double[] height = new double[1];
+			int mid = bisect(range[0], range[1], height);
+			range[2] = ranges.size();
+			ranges.add(new int[] {range[0], mid, -1, -1});
+			range[3] = ranges.size();
+			ranges.add(new int[] {mid, range[1], -1, -1});
+			heights.set(r, height[0]);
+			heights.add(0.0); heights.add(0.0);
+		}
+
+		// join bottom up
+		Cluster[] trees = new Cluster[ranges.size()];
+		for(int r = ranges.size() - 1; r >= 0; r--) {
+			int[] range = ranges.get(r);
+			if(range[2] >= 0) {
+				trees[r] = new Cluster(trees[range[2]], trees[range[3]], heights.get(r));
+				trees[range[2]] = null; trees[range[3]] = null;
+				continue;
+			}
+			int size = range[1] - range[0];
+			EncodedSequence[] subset = new EncodedSequence[size];
+			Cluster[] leaves = new Cluster[size];
+			int[] members = Arrays.copyOfRange(order, range[0], range[1]);
+			for(int k = 0; k < size; k++) {
+				subset[k] = encoded[members[k]];
+				leaves[k] = new Cluster(members[k], sequences.getSeq(members[k]));
+			}
+			if(size == 1) {
+				trees[r] = leaves[0];
+				continue;
+			}
+			double[][] D = builder.build(subset);
+			store.keep(members, D);
+			trees[r] = PGMA.cluster(D, leaves, false);
+		}
+		vectors = null; order = null;
+		trees[0].distances = store;
+		return trees[0];
+	}
+
+	/** Chooses the seeds evenly spread over the sequences sorted by length
+	 * @param encoded The encoded sequences
+	 * @return Indices of the seeds
+	 */
+	private int[] chooseSeeds(EncodedSequence[] encoded) {
+		int n = encoded.length;
+		int log = 32 - Integer.numberOfLeadingZeros(n - 1);
+		int count = Math.max(1, Math.min(n, (seeds > 0) ? seeds : log * log));
+		long[] byLength = new long[n];
+		for(int i = 0; i < n; i++) byLength[i] = ((long) encoded[i].length() << 32) | i;
+		Arrays.sort(byLength);
+		int[] seedIds = new int[count];
+		for(int s = 0; s < count; s++)
+			seedIds[s] = (int) byLength[(int) ((2L * s + 1) * n / (2 * count))];
+		return seedIds;
+	}
+
+	/** Splits a cluster into two by k-means with k = 2. The centres start at
+	 * the vector farthest from the mean and the one farthest from that.
+	 * @param from First position in the order
+	 * @param to Position behind the last one
+	 * @param height Receives the distance of the two centres
+	 * @return First position of the second cluster, the order is rearranged
+	 */
+	private int bisect(int from, int to, double[] height) {
+		double[] c1 = new double[t], c2 = new double[t];
+		mean(from, to, c1);
+		int a = farthest(from, to, c1);
+		System.arraycopy(vectors, order[a] * t, c1, 0, t);
+		int b = farthest(from, to, c1);
+		System.arraycopy(vectors, order[b] * t, c2, 0, t);
+
+		int mid = from;
+		for(int round = 0; round < iterations; round++) {
+			int i = from, j = to - 1;		// partition, closer to c1 to the front
+			while(i <= j) {
+				if(squaredDistance(order[i], c1) <= squaredDistance(order[i], c2)) i++;
+				else { int swap = order[i]; order[i] = order[j]; order[j] = swap; j--; }
+			}
+			mid = i;
+			if(mid == from || mid == to) break;
+			double[] m1 = new double[t], m2 = new double[t];
+			mean(from, mid, m1); mean(mid, to, m2);
+			boolean moved = !Arrays.equals(m1, c1) || !Arrays.equals(m2, c2);
+			c1 = m1; c2 = m2;
+			if(!moved) break;
+		}
+		if(mid == from || mid == to) {		// all vectors equal, split in halves
+			mid = (from + to) >>> 1;
+			height[0] = 0;
+		} else height[0] = Math.sqrt(squaredDistance(c1, c2));
+		return mid;
+	}
+
+	/** Computes the mean of the vectors of a range
+	 * @param from First position in the order
+	 * @param to Position behind the last one
+	 * @param mean Receives the mean
+	 */
+	private void mean(int from, int to, double[] mean) {
+		Arrays.fill(mean, 0);
+		for(int k = from; k < to; k++)
+			for(int s = 0, row = order[k] * t; s < t; s++) mean[s] += vectors[row + s];
+		for(int s = 0; s < t; s++) mean[s] /= (to - from);
+	}
+
+	/** Finds the vector of a range farthest from a point
+	 * @param from First position in the order
+	 * @param to Position behind the last one
+	 * @param point The point
+	 * @return Position of the vector in the order
+	 */
+	private int farthest(int from, int to, double[] point) {
+		int best = from;
+		double max = -1;
+		for(int k = from; k < to; k++) {
+			double dist = squaredDistance(order[k], point);
+			if(dist > max) { max = dist; best = k; }
+		}
+		return best;
+	}
+
+	/** Computes the squared euclidean distance of a vector to a point
+	 * @param i Index of the sequence
+	 * @param point The point
+	 * @return The squared distance
+	 */
+	private double squaredDistance(int i, double[] point) {
+		double sum = 0;
+		for(int s = 0, row = i * t; s < t; s++) {
+			double diff = vectors[row + s] - point[s];
+			sum += diff * diff;
+		}
+		return sum;
+	}
+
+	/** Computes the squared euclidean distance of two points
+	 * @param p1 The first point
+	 * @param p2 The second point
+	 * @return The squared distance
+	 */
+	private static double squaredDistance(double[] p1, double[] p2) {
+		double sum = 0;
+		for(int s = 0; s < p1.length; s++) sum += (p1[s] - p2[s]) * (p1[s] - p2[s]);
+		return sum;
+	}
+}
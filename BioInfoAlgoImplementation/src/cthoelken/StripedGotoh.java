@@ -0,0 +1,157 @@
+package cthoelken;
+
+/**
+ * Score-only implementation of the Gotoh Algorithm in the striped layout of
+ * Farrar (2007). Sequence 1 is split into a number of lanes, position
+ * t = lane * segLength + segment, so that the values of one segment of all
+ * lanes are independent of each other and lie next to each other in memory.
+ * The inner loops over the lanes are plain array loops which the JIT compiler
+ * can turn into SIMD instructions. Substitution scores are taken from a query
+ * profile that is built once per call.
+ *
+ * Gaps within a column are first ignored across lane borders and fixed in the
+ * lazy-F loop afterwards. This requires the gap opening to be at least as
+ * expensive as an extension, i.e. non-positive gap costs.
+ *
+ * @author Clemens Thoelken
+ *
+ */
+class StripedGotoh {
+
+	private static final int NEG = Integer.MIN_VALUE / 2;	// minus infinity
+
+	private int[] scores;		// integer substitution scores per pair of codes
+	private int open;			// costs of the first gap position
+	private int ext;			// costs of every further gap position
+	private int lanes;			// number of independent lanes
+
+	/** Constructor
+	 * @param omega Substitution matrix, must be integral
+	 * @param gapCosts Gap opening costs, must be integral and non-positive
+	 * @param gapCostsExt Gap extension costs, must be integral
+	 * @param lanes Number of lanes, 8 fills a 256 bit register with int values
+	 */
+	StripedGotoh(SubstitutionMatrix omega, int gapCosts, int gapCostsExt, int lanes) {
+		if(omega.intTable == null || gapCosts > 0 || lanes < 1)
+			throw new IllegalArgumentException("Costs not feasable for the striped approach!");
+		this.scores = omega.intTable;
+		this.open = gapCosts + gapCostsExt;
+		this.ext = gapCostsExt;
+		this.lanes = lanes;
+	}
+
+	/** Checks whether the striped approach can be used
+	 * @param omega Substitution matrix
+	 * @param gapCosts Gap opening costs
+	 * @param gapCostsExt Gap extension costs
+	 * @param steps Sum of both sequence lengths
+	 * @return TRUE if all costs are integral, the gap opening is non-positive
+	 * and no score can overflow
+	 */
+	static boolean isFeasable(SubstitutionMatrix omega, double gapCosts, double gapCostsExt, int steps) {
+		return omega.isIntegral() && Util.isIntegral(gapCosts) && Util.isIntegral(gapCostsExt) && gapCosts <= 0
+				&& Util.fitsInt(steps + 2, omega.getMaxAbsScore() + Math.abs(gapCosts)
+						+ Math.abs(gapCostsExt));
+	}
+
+	/** Computes the score of the optimal global alignment
+	 * @param code1 Encoded sequence 1 including the border at position 0
+	 * @param code2 Encoded sequence 2 including the border at position 0
+	 * @return The score
+	 */
+	int score(byte[] code1, byte[] code2) {
+		int n = code1.length - 1, m = code2.length - 1;
+		int segLength = (n + lanes - 1) / lanes;
+		int size = segLength * lanes;
+
+		// query profile: scores of sequence 1 against every code in striped order
+		int[][] profile = new int[EncodedSequence.SIZE][];
+		for(int j = 1; j <= m; j++) {
+			byte c = code2[j];
+			if(profile[c] != null) continue;
+			profile[c] = new int[size];
+			for(int s = 0; s < segLength; s++)
+				for(int l = 0; l < lanes; l++) {
+					int t = l * segLength + s;
+					profile[c][s * lanes + l] = (t < n) ? scores[code1[t+1] * EncodedSequence.SIZE + c] : 0;
+				}
+		}
+
+		// first row and first column of the cost matrix
+		int[] row0 = new int[m+1];
+		int v = NEG;
+		for(int j = 1; j <= m; j++) {
+			v = Math.max(row0[j-1] + open, v + ext);
+			row0[j] = v;
+		}
+		if(n == 0) return row0[m];
+		int[] hLoad = new int[size];	// M of the previous column
+		int[] hStore = new int[size];	// M of the current column
+		int[] e = new int[size];		// V of the current column
+		int h = NEG, col0 = 0;
+		for(int t = 0; t < n; t++) {
+			h = Math.max(col0 + open, h + ext);
+			col0 = h;
+			hLoad[(t % segLength) * lanes + t / segLength] = col0;
+			e[(t % segLength) * lanes + t / segLength] = col0 + open;
+		}
+		for(int t = n; t < size; t++) {
+			hLoad[(t % segLength) * lanes + t / segLength] = NEG;
+			e[(t % segLength) * lanes + t / segLength] = NEG;
+		}
+
+		int[] f = new int[lanes];
+		int[] diag = new int[lanes];
+		int[] swap, prof;
+		for(int j = 1; j <= m; j++) {
+			prof = profile[code2[j]];
+
+			// the diagonal of segment 0 comes from the last segment one lane up
+			diag[0] = row0[j-1];
+			for(int l = 1; l < lanes; l++) diag[l] = hLoad[(segLength-1) * lanes + l-1];
+			f[0] = row0[j] + open;
+			for(int l = 1; l < lanes; l++) f[l] = NEG;
+
+			for(int s = 0, idx = 0; s < segLength; s++, idx += lanes) {
+				for(int l = 0; l < lanes; l++) {
+					int cur = Math.max(Math.max(diag[l] + prof[idx+l], e[idx+l]), f[l]);
+					hStore[idx+l] = cur;
+					diag[l] = hLoad[idx+l];
+					e[idx+l] = Math.max(e[idx+l] + ext, cur + open);
+					f[l] = Math.max(f[l] + ext, cur + open);
+				}
+			}
+
+			lazyF(f, hStore, e, segLength);
+			swap = hLoad; hLoad = hStore; hStore = swap;
+		}
+		if(m == 0) return col0;
+		return hLoad[((n-1) % segLength) * lanes + (n-1) / segLength];
+	}
+
+	/** Carries the vertical gaps across the lane borders
+	 * @param f Vertical gap scores leaving the last segment of each lane
+	 * @param h Scores of the current column
+	 * @param e Horizontal gap scores for the next column
+	 * @param segLength Number of segments
+	 */
+	private void lazyF(int[] f, int[] h, int[] e, int segLength) {
+		for(int pass = 0; pass < lanes; pass++) {
+			for(int l = lanes-1; l > 0; l--) f[l] = f[l-1];
+			f[0] = NEG;
+			for(int s = 0, idx = 0; s < segLength; s++, idx += lanes) {
+				boolean active = false;
+				for(int l = 0; l < lanes; l++) {
+					if(f[l] > h[idx+l]) {
+						h[idx+l] = f[l];
+						e[idx+l] = Math.max(e[idx+l], f[l] + open);
+						active = true;
+					}
+					else if(f[l] + ext > h[idx+l] + open) active = true;
+					f[l] += ext;
+				}
+				if(!active) return;
+			}
+		}
+	}
+}
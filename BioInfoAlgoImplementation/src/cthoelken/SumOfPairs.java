@@ -3,7 +3,11 @@ package cthoelken;
 import gui.AlgorithmParameter;
 import gui.BioinfAlgorithm;
 import gui.StringList;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Vector;
 
  /**
@@ -15,6 +19,9 @@ import java.util.Vector;
   */
 public class SumOfPairs extends BioinfAlgorithm {
 
+	// per pointer bit the consumed sequences: 111, 11_, 1_1, _11, 1__, _1_, __1
+	private static final int[] MOVES = {7, 3, 5, 6, 1, 2, 4};
+
 	protected String seq1;
 	protected String seq2;
 	protected boolean usePAM;
@@ -24,7 +31,8 @@ public class SumOfPairs extends BioinfAlgorithm {
 	protected CostMatrix M;
 	protected LinkedList<Alignment> algnmts = new LinkedList<Alignment>();
 	protected String seq3;
-	private Alignment sequences;
+	protected byte[] code1, code2, code3;	// encoded sequences, position 0 is the border
+	private EncodedSequence[] sequences;
 
 	 /**
 	  * Constructor which generates an empty vector of parameters of the needed 
@@ -89,16 +97,88 @@ public class SumOfPairs extends BioinfAlgorithm {
 	 * @return Returns the total score
 	 */
 	public static double score(Alignment algn, boolean usePAM, double gapCosts) {
-		SubstitutionMatrix omega = new SubstitutionMatrix(usePAM, gapCosts);
-		double score = 0;
-		for(int x = 0; x < algn.size(); x++) {
-			if(algn.getSeq(x).length() != algn.getSeq(0).length())
-				throw new IllegalArgumentException("Sequences in alignment are not of the same length!");
-			else for(int y = x+1; y < algn.size(); y++)
-				for(int z = 0; z < algn.getSeq(0).length(); z++)
-					score += omega.getScore(algn.getSeq(x).charAt(z), algn.getSeq(y).charAt(z));
-		}
-		return score;
+		return score(AlignmentMatrix.of(algn), usePAM, gapCosts);
+	}
+	
+	/** Scores a column-major alignment based on SOP-Score, counting the
+	 * symbols of every column instead of comparing all pairs of rows
+	 * @param msa The alignment
+	 * @param usePAM Use PAM for substitution
+	 * @param gapCosts Gap costs for the alignment
+	 * @return Returns the total score
+	 */
+	public static double score(AlignmentMatrix msa, boolean usePAM, double gapCosts) {
+		return msa.sumOfPairs(new SubstitutionMatrix(usePAM, gapCosts));
+	}
+	
+	/** Enumerates the co-optimal alignments of three encoded sequences lazily,
+	 * keeping only the current path in memory
+	 * @param s1 Encoded sequence 1
+	 * @param s2 Encoded sequence 2
+	 * @param s3 Encoded sequence 3
+	 * @param usePAM Use PAM for substitution
+	 * @param gapCosts Gap costs for the alignment
+	 * @param limit Maximal number of alignments
+	 * @return The alignments, each iterator starts with the first one again
+	 */
+	public Iterable<Alignment> getAlignments(EncodedSequence s1, EncodedSequence s2,
+			EncodedSequence s3, boolean usePAM, double gapCosts, final int limit) {
+		fill(s1, s2, s3, usePAM, gapCosts);
+		final String[] seqs = {seq1, seq2, seq3};
+		final CostMatrix D = M;
+		return new Iterable<Alignment>() {
+			public Iterator<Alignment> iterator() {
+				return traceback(seqs, D).limit(limit);
+			}
+		};
+	}
+	
+	/** Counts the co-optimal alignments of three encoded sequences exactly
+	 * @param s1 Encoded sequence 1
+	 * @param s2 Encoded sequence 2
+	 * @param s3 Encoded sequence 3
+	 * @param usePAM Use PAM for substitution
+	 * @param gapCosts Gap costs for the alignment
+	 * @return Number of optimal alignments
+	 */
+	public BigInteger countAlignments(EncodedSequence s1, EncodedSequence s2,
+			EncodedSequence s3, boolean usePAM, double gapCosts) {
+		fill(s1, s2, s3, usePAM, gapCosts);
+		return traceback(new String[] {seq1, seq2, seq3}, M).count();
+	}
+	
+	/** Draws optimal alignments of three encoded sequences uniformly among
+	 * all co-optimal ones, see NeedlemanWunsch.sampleAlignments()
+	 * @param s1 Encoded sequence 1
+	 * @param s2 Encoded sequence 2
+	 * @param s3 Encoded sequence 3
+	 * @param usePAM Use PAM for substitution
+	 * @param gapCosts Gap costs for the alignment
+	 * @param k Number of samples
+	 * @param seed Seed of the random choices, equal seeds give equal samples
+	 * @return The sampled alignments, possibly with repetitions
+	 */
+	public List<Alignment> sampleAlignments(EncodedSequence s1, EncodedSequence s2,
+			EncodedSequence s3, boolean usePAM, double gapCosts, int k, long seed) {
+		fill(s1, s2, s3, usePAM, gapCosts);
+		return NeedlemanWunsch.sample(traceback(new String[] {seq1, seq2, seq3}, M), k, seed);
+	}
+	
+	/** Sets the sequences and costs and fills the CostMatrix
+	 * @param s1 Encoded sequence 1
+	 * @param s2 Encoded sequence 2
+	 * @param s3 Encoded sequence 3
+	 * @param usePAM Use PAM for substitution
+	 * @param gapCosts Gap costs for the alignment
+	 */
+	private void fill(EncodedSequence s1, EncodedSequence s2, EncodedSequence s3, 
+			boolean usePAM, double gapCosts) {
+		seq1 = s1.toString(); code1 = s1.codes;
+		seq2 = s2.toString(); code2 = s2.codes;
+		seq3 = s3.toString(); code3 = s3.codes;
+		this.usePAM = usePAM; this.gapCosts = gapCosts;
+		omega = new SubstitutionMatrix(usePAM, gapCosts);
+		score();
 	}
 	
 	/** Fills the CostMatrix with values and returns the optimal score
@@ -106,27 +186,38 @@ public class SumOfPairs extends BioinfAlgorithm {
 	 */
 	private double score() {
 		seq1 = "#" + seq1; seq2 = "#" + seq2; seq3 = "#" + seq3; //increase sequence length, disregarded afterwards
-		M = new CostMatrix(seq1.length(), seq2.length(), seq3.length());
-		double[] score = new double[7];
+		if(omega.isIntegral() && Util.fitsInt(seq1.length() + seq2.length() 
+				+ seq3.length(), 3 * omega.getMaxAbsScore()))
+			return scoreInt();
+		CostMatrix3D D = new CostMatrix3D(seq1.length(), seq2.length(), seq3.length());
+		D.recordPointers();
+		M = D;
+		double[] m = D.cells;
+		byte[] p = D.pointers;
+		int dx = D.strideX, dy = D.strideY;	// offsets to the neighbours
+		int idx;
+		byte a, b, c;
+		double[] cand = new double[7];	// candidates in the order of the pointer bits
 		for(int x = 0; x < seq1.length(); x++) {
+			a = code1[x];
 			for(int y = 0; y < seq2.length(); y++) {
-				for(int z = 0; z < seq3.length(); z++) {
+				b = code2[y];
+				idx = D.index(x, y, 0);
+				for(int z = 0; z < seq3.length(); z++, idx++) {
 					if(x+y+z != 0) {
-						score[0] = M.get(x-1, y-1, z-1) + omega.getScore(// 111
-								seq1.charAt(x), 
-								seq2.charAt(y), 
-								seq3.charAt(z));
-						score[1] = M.get(x-1, y-1, z) + omega.getScore(	// 11_
-								seq1.charAt(x), seq2.charAt(y)) + 2*gapCosts;
-						score[2] = M.get(x-1, y, z-1) + omega.getScore(	// 1_1
-								seq1.charAt(x), seq3.charAt(z)) + 2*gapCosts;
-						score[3] = M.get(x, y-1, z-1) + omega.getScore(	// _11
-								seq2.charAt(y), seq3.charAt(z)) + 2*gapCosts;
-						score[4] = M.get(x-1, y, z) + 2*gapCosts;		// 1__
-						score[5] = M.get(x, y-1, z) + 2*gapCosts;		// _1_
-						score[6] = M.get(x, y, z-1) + 2*gapCosts;		// __1
-
-						M.set(x, y, z, new Double(Util.maxValue(score[0], score[1], score[2], score[3], score[4], score[5], score[6])));
+						c = code3[z];
+						cand[0] = m[idx-dx-dy-1] + omega.getScore(a, b, c);			// 111
+						cand[1] = m[idx-dx-dy] + omega.getScore(a, b) + 2*gapCosts;	// 11_
+						cand[2] = m[idx-dx-1] + omega.getScore(a, c) + 2*gapCosts;	// 1_1
+						cand[3] = m[idx-dy-1] + omega.getScore(b, c) + 2*gapCosts;	// _11
+						cand[4] = m[idx-dx] + 2*gapCosts;							// 1__
+						cand[5] = m[idx-dy] + 2*gapCosts;							// _1_
+						cand[6] = m[idx-1] + 2*gapCosts;							// __1
+						m[idx] = Util.maxValue(
+							Util.maxValue(cand[0], cand[1], cand[2]),
+							Util.maxValue(cand[3], cand[4], cand[5]),
+							cand[6]);
+						p[idx] = pointers(m[idx], cand);
 					}
 				}
 			}
@@ -134,104 +225,82 @@ public class SumOfPairs extends BioinfAlgorithm {
 		return M.score();
 	}
 	
-	/** Backtracks the CostMatrix for feasable paths and adds them to the internal alignment list
-	 * @param x x-offset
-	 * @param y y-offset
-	 * @param z z-offset
-	 * @param algn Initial alignment, starts with an empty alignment
+	/** Integer version of score(), used if all costs are integral
+	 * @return Optimal Score
 	 */
-	private void backtrack(int x, int y, int z, Alignment algn) {
-		if(x < 0 || y < 0 || z < 0) return;
-		
-		if(x == 0 && y == 0 && z == 0) {	// we are done, great!
-			algnmts.add(algn);
-			return;
-		}
-		
-		int[] psbl = {0, 0, 0, 0, 0, 0, 0};
-		if(M.get(x, y, z) == M.get(x-1, y-1, z-1) // perfect match
-				+ omega.getScore(seq1.charAt(x), seq2.charAt(y), seq3.charAt(z)))
-			psbl[0] = 1;
-		if(M.get(x, y, z) == M.get(x-1, y-1, z)   // match in X and Y
-				+ omega.getScore( seq1.charAt(x), seq2.charAt(y)) + 2*gapCosts)
-			psbl[1] = 1;
-		if(M.get(x, y, z) == M.get(x-1, y, z-1)   // match in X and Z
-				+ omega.getScore( seq1.charAt(x), seq3.charAt(z)) + 2*gapCosts)
-			psbl[2] = 1;
-		if(M.get(x, y, z) == M.get(x, y-1, z-1)   // match in Y and Z
-				+ omega.getScore( seq2.charAt(y), seq3.charAt(z)) + 2*gapCosts)
-			psbl[3] = 1;
-		if(M.get(x, y, z) == M.get(x-1, y, z) + 2*gapCosts) psbl[4] = 1; // insert in Y and Z
-		if(M.get(x, y, z) == M.get(x, y-1, z) + 2*gapCosts) psbl[5] = 1; // insert in X and Z
-		if(M.get(x, y, z) == M.get(x, y, z-1) + 2*gapCosts) psbl[6] = 1; // insert in Y and Z
-		
-		char[] column = new char[3];
-		char[] match = new char[2];
-		
-		match[0] = ' '; match[1] = '_';
-		
-		if(randomBackTrace == true) psbl = Util.chooseRandom(psbl); //Random BT
-		
-		if(psbl[0] == 1) {
-			match[0] = (seq1.toUpperCase().charAt(x) == seq2.toUpperCase().charAt(y)) ? '|' : '*';
-			match[1] = (seq2.toUpperCase().charAt(y) == seq3.toUpperCase().charAt(z)) ? '|' : '*';
-			column[0] = seq1.charAt(x);
-			column[1] = seq2.charAt(y);
-			column[2] = seq3.charAt(z);
-			backtrack(x-1, y-1, z-1, algn.addFirst(column, match));
-		}
-		if(psbl[1] == 1) {
-			match[0] = (seq1.toUpperCase().charAt(x) == seq2.toUpperCase().charAt(y)) ? '|' : '*';
-			match[1] = ' ';
-			column[0] = seq1.charAt(x);
-			column[1] = seq2.charAt(y);
-			column[2] = '_';
-			backtrack(x-1, y-1, z, algn.addFirst(column, match));
-		}
-		if(psbl[2] == 1) {
-			match[0] = ' ';
-			match[1] = ' ';
-			column[0] = seq1.charAt(x);
-			column[1] = '_';
-			column[2] = seq3.charAt(z);
-			backtrack(x-1, y, z-1, algn.addFirst(column, match));
-		}
-		if(psbl[3] == 1) {
-			match[0] = ' ';
-			match[1] = (seq2.toUpperCase().charAt(y) == seq3.toUpperCase().charAt(z)) ? '|' : '*';
-			column[0] = '_';
-			column[1] = seq2.charAt(y);
-			column[2] = seq3.charAt(z);
-			backtrack(x, y-1, z-1, algn.addFirst(column, match));
-		}
-		if(psbl[4] == 1) {
-			match[0] = ' ';
-			match[1] = ' ';
-			column[0] = seq1.charAt(x);
-			column[1] = '_';
-			column[2] = '_';
-			backtrack(x-1, y, z, algn.addFirst(column, match));
-		}
-		if(psbl[5] == 1) {
-			match[0] = ' ';
-			match[1] = ' ';
-			column[0] = '_';
-			column[1] = seq2.charAt(y);
-			column[2] = '_';
-			backtrack(x, y-1, z, algn.addFirst(column, match));
-		}
-		if(psbl[6] == 1) {
-			match[0] = ' ';
-			match[1] = ' ';
-			column[0] = '_';
-			column[1] = '_';
-			column[2] = seq3.charAt(z);
-			backtrack(x, y, z-1, algn.addFirst(column, match));
+	private double scoreInt() {
+		IntCostMatrix3D D = new IntCostMatrix3D(seq1.length(), seq2.length(), seq3.length());
+		D.recordPointers();
+		M = D;
+		int[] m = D.cells;
+		byte[] p = D.pointers;
+		int[] cand = new int[7];
+		int dx = D.strideX, dy = D.strideY;
+		int gap2 = 2 * (int) gapCosts;
+		int[] scores = omega.intTable;
+		int size = EncodedSequence.SIZE;
+		int idx, ab, a, b, c;
+		for(int x = 0; x < seq1.length(); x++) {
+			a = code1[x];
+			for(int y = 0; y < seq2.length(); y++) {
+				b = code2[y];
+				ab = scores[a * size + b];
+				idx = D.index(x, y, 0);
+				for(int z = 0; z < seq3.length(); z++, idx++) {
+					if(x+y+z != 0) {
+						c = code3[z];
+						cand[0] = m[idx-dx-dy-1] + ab + scores[a * size + c] + scores[b * size + c];	// 111
+						cand[1] = m[idx-dx-dy] + ab + gap2;					// 11_
+						cand[2] = m[idx-dx-1] + scores[a * size + c] + gap2;	// 1_1
+						cand[3] = m[idx-dy-1] + scores[b * size + c] + gap2;	// _11
+						cand[4] = m[idx-dx] + gap2;							// 1__
+						cand[5] = m[idx-dy] + gap2;							// _1_
+						cand[6] = m[idx-1] + gap2;							// __1
+						m[idx] = Math.max(Math.max(Math.max(cand[0], cand[1]),
+								Math.max(cand[2], cand[3])),
+								Math.max(Math.max(cand[4], cand[5]), cand[6]));
+						p[idx] = pointers(m[idx], cand);
+					}
+				}
+			}
 		}
-		
-		
+		return M.score();
+	}
+	
+	/** Combines the optimal predecessors of a cell to its pointer bits
+	 * @param best Value of the cell
+	 * @param cand Candidates in the order 111, 11_, 1_1, _11, 1__, _1_, __1
+	 * @return Bit i set if candidate i is optimal
+	 */
+	private static byte pointers(double best, double[] cand) {
+		int bits = 0;
+		for(int k = 0; k < cand.length; k++) if(cand[k] == best) bits |= 1 << k;
+		return (byte) bits;
+	}
+	
+	/** Integer version of pointers()
+	 * @param best Value of the cell
+	 * @param cand Candidates in the order 111, 11_, 1_1, _11, 1__, _1_, __1
+	 * @return Bit i set if candidate i is optimal
+	 */
+	private static byte pointers(int best, int[] cand) {
+		int bits = 0;
+		for(int k = 0; k < cand.length; k++) if(cand[k] == best) bits |= 1 << k;
+		return (byte) bits;
+	}
+	
+	/** Creates a traceback along the recorded pointers of a cost matrix
+	 * @param seqs The three sequence strings including the border symbol
+	 * @param D The filled cost matrix
+	 * @return The traceback, starting in the last cell
+	 */
+	private static Traceback traceback(String[] seqs, final CostMatrix D) {
+		return new Traceback(seqs, MOVES, new int[MOVES.length]) {
+			int options(int x, int y, int z, int state) {
+				return D.getPointers(x, y, z);
+			}
+		};
 	}
-
 	
 	/**
 	 * Main method of the algorithm.
@@ -242,19 +311,35 @@ public class SumOfPairs extends BioinfAlgorithm {
 	 */
 	@Override
 	public String run(Vector<AlgorithmParameter> params) {
-		
-		String retVal = new String("");
+		StringBuilder retVal = new StringBuilder();
+		try {
+			run(params, retVal);
+		} catch(IOException e) { throw new IllegalStateException(e); }
+		return retVal.toString();
+	}
+	
+	/**
+	 * Main method of the algorithm, streaming the alignments while the
+	 * traceback enumerates them.
+	 * 
+	 * @param params The filled out parameters are entered externally.
+	 * @param out Destination of the used parameters, the results and errors
+	 * @throws IOException If the destination fails
+	 */
+	public void run(Vector<AlgorithmParameter> params, Appendable out) throws IOException {
 		
 		  // ##########  PARSE INPUT PARAMETERS FOR ERRORS  ###########
 		
 		try {
-			sequences = Util.parseFasta((StringList) params.elementAt(0).data);
-		} catch(IllegalArgumentException e) { return ""+e; }
-		if(sequences.size() != 3)
-			return "Please enter 3 valid Sequences in the FASTA format above!";
-		seq1 = sequences.getSeq(0);
-		seq2 = sequences.getSeq(1);
-		seq3 = sequences.getSeq(2);
+			sequences = Util.parseFastaEncoded((StringList) params.elementAt(0).data);
+		} catch(IllegalArgumentException e) { out.append(""+e); return; }
+		if(sequences.length != 3) {
+			out.append("Please enter 3 valid Sequences in the FASTA format above!");
+			return;
+		}
+		seq1 = sequences[0].toString(); code1 = sequences[0].codes;
+		seq2 = sequences[1].toString(); code2 = sequences[1].codes;
+		seq3 = sequences[2].toString(); code3 = sequences[2].codes;
 		
 		usePAM = (Boolean) params.elementAt(1).data;
 		randomBackTrace = (Boolean) params.elementAt(2).data;
@@ -262,23 +347,18 @@ public class SumOfPairs extends BioinfAlgorithm {
 		try{
 			if(params.elementAt(3).type == Double.class)
 				gapCosts = (Double) params.elementAt(3).data;
-			else return "Gap costs are not a valid decimal value!";
-		} catch(Exception e) {return "Gap costs are not a valid decimal value!";}
+			else { out.append("Gap costs are not a valid decimal value!"); return; }
+		} catch(Exception e) { out.append("Gap costs are not a valid decimal value!"); return; }
 		
 		omega = new SubstitutionMatrix(usePAM, gapCosts);
 		
 		  // ##########  RUN THE PROGRAM  ###########
 		
-		System.out.println("\nScore: "+score());
-		
-		backtrack(seq1.length()-1, seq2.length()-1, seq3.length()-1, new Alignment(3));
+		out.append("\nScore: ").append(String.valueOf(score())).append("\n");
 		
-		// ### print alignments to return string ###
-		for(int k=0; k<algnmts.size(); k++) 
-			retVal += "\n########### Alignment "+(k+1)+":\n"+algnmts.get(k).toString();
-				
-		  // returning the algorithm results
-		return retVal;
+		// ### print alignments to the destination ###
+		NeedlemanWunsch.writeAlignments(traceback(new String[] {seq1, seq2, seq3}, M), 
+				randomBackTrace, 1, out);
 	}
 	
 	/**
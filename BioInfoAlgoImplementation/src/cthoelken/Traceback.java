@@ -0,0 +1,335 @@
+package cthoelken;
+
+import java.math.BigInteger;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Iterative traceback through the predecessor bits recorded during the fill
+ * of a cost matrix. The bits of a cell are translated into options, every
+ * option consumes a symbol of some of the sequences and leads into a state
+ * of the predecessor cell. States allow affine gap costs, where the cell of
+ * a gap may be reached from its opening or from its extension.
+ *
+ * The co-optimal paths are enumerated depth first with an explicit stack, so
+ * long sequences cannot overflow the call stack and no score has to be
+ * recomputed. As an Iterator the enumeration is lazy, every call to next()
+ * resumes the search where the previous one stopped. Memory stays linear in
+ * the length of the alignment no matter how many paths exist.
+ *
+ * The number of co-optimal paths is counted exactly in one pass over the
+ * cells reachable from the last one. With these counts a path is drawn
+ * uniformly among all of them by a single random number, which is unranked
+ * along the path, without enumerating the others. The counts cost memory
+ * per cell, so a single random path is taken by a plain random walk.
+ *
+ * @author Clemens Thoelken
+ *
+ */
+abstract class Traceback implements Iterator<Alignment> {
+
+	private String[] seqs;		// sequences including the border symbol
+	private String[] plain;		// sequences without border symbol, shared by the scripts
+	private int[] moves;		// per option: bit i set if sequence i is consumed
+	private int[] targets;		// per option: state of the predecessor
+
+	// explicit stack of the depth first search, one entry per column
+	private int[] x, y, z, state, open;
+	private int[] steps;		// per column the move bits of the option taken
+	private char[][] columns;	// columns of the current path, last one first
+	private int depth;			// number of columns on the current path
+	private boolean pending;	// complete path on the stack not yet returned
+	private int limit = Integer.MAX_VALUE;	// maximal number of alignments
+	private int count;			// number of alignments returned
+	private BigInteger[] paths;	// per cell and state: number of paths to the first cell
+	private int states;			// number of states per cell
+
+	/** Constructor
+	 * @param seqs Sequence strings including the border symbol at position 0
+	 * @param moves Per option the bits of the sequences it consumes
+	 * @param targets Per option the state it leads to
+	 */
+	Traceback(String[] seqs, int[] moves, int[] targets) {
+		this.seqs = seqs;
+		this.moves = moves;
+		this.targets = targets;
+	}
+
+	/** Returns the options leaving a cell in a state
+	 * @param x Position in sequence 1
+	 * @param y Position in sequence 2
+	 * @param z Position in sequence 3, 0 for two sequences
+	 * @param state State of the cell
+	 * @return Bit i set if option i lies on an optimal path
+	 */
+	abstract int options(int x, int y, int z, int state);
+
+	/** Limits the number of alignments the iteration returns
+	 * @param limit Maximal number of alignments
+	 * @return This traceback
+	 */
+	Traceback limit(int limit) {
+		if(limit < 0) throw new IllegalArgumentException("Limit must not be negative!");
+		this.limit = limit;
+		return this;
+	}
+
+	/** Adds all remaining co-optimal alignments to a list, in the order of the
+	 * options
+	 * @param algnmts List the alignments are added to
+	 */
+	void all(List<Alignment> algnmts) {
+		while(hasNext()) algnmts.add(next());
+	}
+
+	@Override
+	public boolean hasNext() {
+		if(!pending && count < limit) pending = advance();
+		return pending;
+	}
+
+	@Override
+	public Alignment next() {
+		if(!hasNext()) throw new NoSuchElementException();
+		Alignment algn = toAlignment();
+		pop();
+		return algn;
+	}
+
+	/** Returns the next co-optimal path of two sequences as compact script
+	 * instead of alignment strings
+	 * @return The edit script of the path
+	 */
+	EditScript nextScript() {
+		if(!hasNext()) throw new NoSuchElementException();
+		EditScript script = toEditScript();
+		pop();
+		return script;
+	}
+
+	/** Removes the returned path from the top of the stack */
+	private void pop() {
+		pending = false;
+		depth--; count++;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/** Continues the depth first search up to the next complete path
+	 * @return TRUE if a path was found, FALSE if all paths were found
+	 */
+	private boolean advance() {
+		if(x == null) start();
+		while(depth >= 0) {
+			if(isDone()) return true;
+			if(open[depth] == 0) {	// all options of this cell explored
+				depth--;
+				continue;
+			}
+			int option = Integer.numberOfTrailingZeros(open[depth]);
+			open[depth] &= open[depth] - 1;
+			push(option);
+		}
+		return false;
+	}
+
+	/** Counts the co-optimal paths, the counts of all cells are kept for
+	 * sampling afterwards
+	 * @return Number of optimal alignments
+	 */
+	BigInteger count() {
+		if(paths == null) countPaths();
+		return paths[cell(seqs[0].length() - 1, seqs[1].length() - 1, 
+				(seqs.length > 2) ? seqs[2].length() - 1 : 0, 0)];
+	}
+
+	/** Walks a random optimal path, at every cell one of its options is chosen
+	 * with equal chance. This needs no counting and no memory beyond the
+	 * path, but paths through cells with fewer options are more likely. Use
+	 * sample() where the paths must be drawn uniformly.
+	 * @param random Source of the choices
+	 * @return The alignment
+	 */
+	Alignment walk(Random random) {
+		start();
+		while(!isDone()) {
+			int option = open[depth];
+			for(int k = random.nextInt(Integer.bitCount(option)); k > 0; k--)
+				option &= option - 1;
+			push(Integer.numberOfTrailingZeros(option));
+		}
+		return toAlignment();
+	}
+
+	/** Draws an optimal path uniformly among all co-optimal ones
+	 * @param random Source of the choice
+	 * @return The alignment
+	 */
+	Alignment sample(Random random) {
+		BigInteger total = count();
+		if(total.signum() == 0) throw new IllegalStateException("No optimal path recorded!");
+		BigInteger rank;
+		do {
+			rank = new BigInteger(total.bitLength(), random);
+		} while(rank.compareTo(total) >= 0);
+		start();
+		while(!isDone()) {
+			int options = open[depth];
+			int option = Integer.numberOfTrailingZeros(options);
+			// skip the options whose paths rank below the drawn one
+			while(true) {
+				BigInteger below = paths[predecessor(x[depth], y[depth], z[depth], option)];
+				options &= options - 1;
+				if(rank.compareTo(below) < 0 || options == 0) break;
+				rank = rank.subtract(below);
+				option = Integer.numberOfTrailingZeros(options);
+			}
+			push(option);
+		}
+		return toAlignment();
+	}
+
+	/** Fills the path counts. A first pass from the last cell backwards marks
+	 * the cells on optimal paths, a second pass forwards sums up the counts of
+	 * their predecessors. Every option consumes a symbol, so predecessors
+	 * always come first in the order of the cells.
+	 */
+	private void countPaths() {
+		int yLength = seqs[1].length(), zLength = (seqs.length > 2) ? seqs[2].length() : 1;
+		states = 1;
+		for(int i = 0; i < targets.length; i++) states = Math.max(states, targets[i] + 1);
+		long size = (long) seqs[0].length() * yLength * zLength * states;
+		if(size > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Too many cells to count the paths!");
+		boolean[] reached = new boolean[(int) size];
+		paths = new BigInteger[(int) size];
+		int last = cell(seqs[0].length() - 1, yLength - 1, zLength - 1, 0);
+		reached[last] = true;
+		for(int c = last; c >= 0; c--) {
+			if(!reached[c]) continue;
+			int s = c % states, z = c / states % zLength;
+			int y = c / states / zLength % yLength, x = c / states / zLength / yLength;
+			for(int options = options(x, y, z, s); options != 0; options &= options - 1)
+				reached[predecessor(x, y, z, Integer.numberOfTrailingZeros(options))] = true;
+		}
+		for(int c = 0; c <= last; c++) {
+			if(!reached[c]) continue;
+			int s = c % states, z = c / states % zLength;
+			int y = c / states / zLength % yLength, x = c / states / zLength / yLength;
+			if(x == 0 && y == 0 && z == 0) {
+				paths[c] = BigInteger.ONE;
+				continue;
+			}
+			BigInteger sum = BigInteger.ZERO;
+			for(int options = options(x, y, z, s); options != 0; options &= options - 1)
+				sum = sum.add(paths[predecessor(x, y, z, Integer.numberOfTrailingZeros(options))]);
+			paths[c] = sum;
+		}
+	}
+
+	/** Computes the position of a cell and state in the path counts
+	 * @param x Position in sequence 1
+	 * @param y Position in sequence 2
+	 * @param z Position in sequence 3, 0 for two sequences
+	 * @param state State of the cell
+	 * @return Index in paths
+	 */
+	private int cell(int x, int y, int z, int state) {
+		int zLength = (seqs.length > 2) ? seqs[2].length() : 1;
+		return ((x * seqs[1].length() + y) * zLength + z) * states + state;
+	}
+
+	/** Position in the path counts a cell leads to by an option
+	 * @param x Position in sequence 1
+	 * @param y Position in sequence 2
+	 * @param z Position in sequence 3, 0 for two sequences
+	 * @param option The option taken
+	 * @return Index in paths
+	 */
+	private int predecessor(int x, int y, int z, int option) {
+		int move = moves[option];
+		return cell(x - (move & 1), y - ((move >> 1) & 1), z - ((move >> 2) & 1), targets[option]);
+	}
+
+	/** Initialises the stack with the last cell of the matrix in state 0 */
+	private void start() {
+		int steps = 1;
+		for(int i = 0; i < seqs.length; i++) steps += seqs[i].length() - 1;
+		x = new int[steps]; y = new int[steps]; z = new int[steps];
+		state = new int[steps]; open = new int[steps];
+		this.steps = new int[steps];
+		columns = new char[seqs.length][steps];
+		depth = 0;
+		x[0] = seqs[0].length() - 1;
+		y[0] = seqs[1].length() - 1;
+		z[0] = (seqs.length > 2) ? seqs[2].length() - 1 : 0;
+		state[0] = 0;
+		open[0] = options(x[0], y[0], z[0], 0);
+	}
+
+	/** Checks whether the top of the stack is the first cell
+	 * @return TRUE if the current path is complete
+	 */
+	private boolean isDone() {
+		return x[depth] == 0 && y[depth] == 0 && z[depth] == 0;
+	}
+
+	/** Moves to the predecessor of the top cell, recording the column
+	 * @param option The option taken
+	 */
+	private void push(int option) {
+		int move = moves[option];
+		int[] pos = {x[depth], y[depth], z[depth]};
+		for(int i = 0; i < seqs.length; i++)
+			columns[i][depth] = ((move & (1 << i)) != 0) ? seqs[i].charAt(pos[i]--) : '_';
+		steps[depth] = move;
+		depth++;
+		x[depth] = pos[0]; y[depth] = pos[1]; z[depth] = pos[2];
+		state[depth] = targets[option];
+		open[depth] = options(pos[0], pos[1], pos[2], targets[option]);
+	}
+
+	/** Builds the alignment of the current path
+	 * @return The alignment with match symbols between neighbouring sequences
+	 */
+	private Alignment toAlignment() {
+		Alignment algn = new Alignment(seqs.length);
+		char[] row = new char[depth];
+		for(int i = 0; i < seqs.length; i++) {
+			for(int k = 0; k < depth; k++) row[k] = columns[i][depth-1-k];
+			algn.sequences[i] = new String(row);
+		}
+		for(int i = 0; i < seqs.length - 1; i++) {
+			int both = (1 << i) | (1 << (i+1));
+			for(int k = 0; k < depth; k++) {
+				char a = columns[i][depth-1-k], b = columns[i+1][depth-1-k];
+				if((steps[depth-1-k] & both) != both) row[k] = ' ';
+				else row[k] = (Character.toUpperCase(a) == Character.toUpperCase(b)) ? '|' : '*';
+			}
+			algn.matches[i] = new String(row);
+		}
+		return algn;
+	}
+
+	/** Builds the edit script of the current path of two sequences from the
+	 * moves taken, so a '_' in the input is not mistaken for a gap
+	 * @return The script, referring to the sequences without border symbol
+	 */
+	private EditScript toEditScript() {
+		if(seqs.length != 2)
+			throw new IllegalStateException("Only pairwise alignments have an edit script!");
+		if(plain == null) plain = new String[] {seqs[0].substring(1), seqs[1].substring(1)};
+		EditScript script = new EditScript(plain[0], plain[1], 0, 0);
+		for(int k = depth - 1; k >= 0; k--) {
+			if(steps[k] == 1) script.append(EditScript.DELETE, 1);
+			else if(steps[k] == 2) script.append(EditScript.INSERT, 1);
+			else script.append(EditScript.substitution(columns[0][k], columns[1][k]), 1);
+		}
+		return script;
+	}
+}
@@ -1,6 +1,7 @@
 package cthoelken;
 
 import gui.StringList;
+import java.security.InvalidParameterException;
 import java.util.LinkedList;
 import java.util.Random;
 
@@ -15,6 +16,48 @@ import java.util.Random;
  */
 public class Util {
 	
+	/** Largest absolute score the integer cost matrices are used for. Anything
+	 * below its negative is regarded as NEGATIVE_INFINITY. */
+	static final int INT_SCORE_LIMIT = 1 << 28;
+	
+	/** Checks whether a cost is a whole number small enough for the integer
+	 * cost matrices
+	 * @param value The cost
+	 * @return TRUE if the value can be handled as an integer
+	 */
+	public static boolean isIntegral(double value) {
+		return value == Math.rint(value) && Math.abs(value) < INT_SCORE_LIMIT;
+	}
+	
+	/** Checks whether the scores of a dynamic programming run cannot overflow
+	 * the integer cost matrices
+	 * @param steps Maximal number of steps on a path through the matrix
+	 * @param maxStepCosts Maximal absolute costs of a single step
+	 * @return TRUE if every score stays within INT_SCORE_LIMIT
+	 */
+	static boolean fitsInt(long steps, double maxStepCosts) {
+		return steps * maxStepCosts < INT_SCORE_LIMIT;
+	}
+	
+	/** Converts a value of an integer cost matrix back to a double
+	 * @param value The stored value
+	 * @return The value, NEGATIVE_INFINITY if it lies on the border
+	 */
+	static double toDouble(int value) {
+		return (value < -INT_SCORE_LIMIT) ? Double.NEGATIVE_INFINITY : value;
+	}
+	
+	/** Converts a double to a value of an integer cost matrix
+	 * @param value The double, must be integral or NEGATIVE_INFINITY
+	 * @return The value to be stored
+	 */
+	static int toInt(double value) {
+		if(value < -INT_SCORE_LIMIT) return IntCostMatrix2D.SENTINEL;
+		if(!isIntegral(value))
+			throw new InvalidParameterException("Value not feasable for integer costs: "+value);
+		return (int) value;
+	}
+	
 	/** Returns the maximum value of the double parameters
 	 * @param value Input double array
 	 * @return maximal input parameter
@@ -26,6 +69,28 @@ public class Util {
 		return max;
 	}
 	
+	/** Returns the maximum of two doubles without allocating a parameter array.
+	 * Like maxValue(double...) the first one wins if both are equal.
+	 * @param a First value
+	 * @param b Second value
+	 * @return maximal input parameter
+	 */
+	public static double maxValue(double a, double b) {
+		return (a < b) ? b : a;
+	}
+	
+	/** Returns the maximum of three doubles without allocating a parameter array.
+	 * Like maxValue(double...) the first one wins if several are equal.
+	 * @param a First value
+	 * @param b Second value
+	 * @param c Third value
+	 * @return maximal input parameter
+	 */
+	public static double maxValue(double a, double b, double c) {
+		double max = (a < b) ? b : a;
+		return (max < c) ? c : max;
+	}
+	
 	/** Returns the index of the maximal double in the parameters
 	 * @param value Input double array
 	 * @return Index of the maximal input parameter
@@ -46,34 +111,7 @@ public class Util {
 	 * @return Returns TRUE if valid, FALSE otherwise.
 	 */
     private static boolean isAmino(char a) {
-    	// check for upper and lowercase characters
-    	switch ((String.valueOf(a)).toUpperCase().charAt(0)) {
-	    	case 'A': return true;
-	    	case 'R': return true;
-	    	case 'N': return true;
-	    	case 'D': return true;
-	    	case 'C': return true;
-	    	case 'Q': return true;
-	    	case 'E': return true;
-	    	case 'G': return true;
-	    	case 'H': return true;
-	    	case 'I': return true;
-	    	case 'L': return true;
-	    	case 'K': return true;
-	    	case 'M': return true;
-	    	case 'F': return true;
-	    	case 'P': return true;
-	    	case 'S': return true;
-	    	case 'T': return true;
-	    	case 'W': return true;
-	    	case 'Y': return true;
-	    	case 'V': return true;
-	    	case 'B': return true;
-	    	case 'Z': return true;
-	    	case 'X': return true;
-	    	case '_': return true;
-	    	default: return false;		// if not in the alphabet
-    	}
+    	return EncodedSequence.isValid(a);	// table lookup, upper and lowercase
     }
     
     
@@ -112,6 +150,21 @@ public class Util {
 	 * @return Alignment with all sequences
 	 */
 	public static Alignment parseFasta(StringList fasta) {
+		EncodedSequence[] sequences = parseFastaEncoded(fasta);
+		Alignment algn = new Alignment(sequences.length);
+		for(int i = 0; i < sequences.length; i++) {
+			algn.setName(i, sequences[i].getName());
+			algn.setSeq(i, sequences[i].toString());
+		}
+		return algn;
+	}
+	
+	/** Parses encoded sequences from a FASTA String with newlines. Every
+	 * sequence is validated and encoded exactly once.
+	 * @param fasta Input string in FASTA format
+	 * @return The encoded sequences in input order
+	 */
+	public static EncodedSequence[] parseFastaEncoded(StringList fasta) {
 		String[] lines = fasta.toString().split("\n");
 		LinkedList<String> names = new LinkedList<String>();
 		LinkedList<String> sequences = new LinkedList<String>();
@@ -139,15 +192,14 @@ public class Util {
 			}
 		}
 		
-		Alignment algn = new Alignment(names.size());
+		EncodedSequence[] encoded = new EncodedSequence[names.size()];
 		for(int i = 0; i < names.size(); i++) {
-			algn.setName(i, names.get(i));
-			if(!isValidSequence(sequences.get(i)))
+			encoded[i] = new EncodedSequence(names.get(i), sequences.get(i));
+			if(encoded[i].length() < 1 || !encoded[i].isValid())
 					throw new IllegalArgumentException("Sequence \'" 
 							+ names.get(i) + "\' is not conform to FASTA!");
-			algn.setSeq(i, sequences.get(i));
 		}
 
-		return algn;
+		return encoded;
 	}
 }
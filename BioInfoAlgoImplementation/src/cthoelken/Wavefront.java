@@ -0,0 +1,71 @@
+package cthoelken;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fills a dynamic programming matrix in parallel. The matrix is cut into
+ * square tiles and every tile only depends on the tiles to its left, above
+ * and diagonally above. All tiles on one anti-diagonal are therefore
+ * independent and are filled at the same time on a ForkJoinPool, before the
+ * next anti-diagonal starts. Each cell is computed by the same code as in the
+ * sequential fill, so the results are identical.
+ *
+ * @author Clemens Thoelken
+ *
+ */
+class Wavefront {
+
+	/** Fills a rectangular part of a matrix, reading only cells with smaller
+	 * row or column indices
+	 */
+	interface Tile {
+		/** Fills the cells of the rows [rowFrom, rowTo) and the columns [colFrom, colTo)
+		 * @param rowFrom First row
+		 * @param rowTo Row behind the last one
+		 * @param colFrom First column
+		 * @param colTo Column behind the last one
+		 */
+		void fill(int rowFrom, int rowTo, int colFrom, int colTo);
+	}
+
+	/** Fills a matrix, in parallel tiles if it is larger than one tile
+	 * @param tile The fill of a rectangular part
+	 * @param rows Number of rows
+	 * @param cols Number of columns
+	 * @param tileSize Edge length of a tile, 0 for a sequential fill
+	 */
+	static void fill(final Tile tile, final int rows, final int cols, final int tileSize) {
+		if(tileSize <= 0 || (rows <= tileSize && cols <= tileSize)) {
+			tile.fill(0, rows, 0, cols);
+			return;
+		}
+		int tileRows = (rows + tileSize - 1) / tileSize;
+		int tileCols = (cols + tileSize - 1) / tileSize;
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+
+		for(int d = 0; d < tileRows + tileCols - 1; d++) {
+			tasks.clear();
+			for(int ti = Math.max(0, d - tileCols + 1); ti <= Math.min(d, tileRows - 1); ti++) {
+				final int i = ti * tileSize, j = (d - ti) * tileSize;
+				tasks.add(new RecursiveAction() {
+					private static final long serialVersionUID = 1L;
+					protected void compute() {
+						tile.fill(i, Math.min(i + tileSize, rows), j, Math.min(j + tileSize, cols));
+					}
+				});
+			}
+			if(tasks.size() == 1) tasks.get(0).invoke();
+			else pool.invoke(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+				protected void compute() {
+					ForkJoinTask.invokeAll(tasks);
+				}
+			});
+		}
+	}
+}
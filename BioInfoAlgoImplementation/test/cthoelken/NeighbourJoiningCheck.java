@@ -0,0 +1,110 @@
+package cthoelken;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Joins random real matrices with the pruned search of NeighbourJoining and
+ * with plain neighbour joining, which evaluates Q for every pair after every
+ * join. With four nodes left both complementary pairs have the same Q, and
+ * with three all pairs, so the roots may differ. The trees are therefore
+ * compared unrooted, as their sets of splits of the leaves.
+ *
+ * @author Clemens Thoelken
+ *
+ */
+class NeighbourJoiningCheck {
+
+	/** Runs the comparison
+	 * @param args Optional seed
+	 */
+	public static void main(String[] args) {
+		Random random = RandomInputs.random(args);
+		int trees = 0;
+		for(int round = 0; round < 1000; round++) {
+			int n = 1 + random.nextInt(40);
+			double[][] D = RandomInputs.reals(random, n);
+			String expected = splits(join(RandomInputs.copy(D)), n).toString();
+			String actual = splits(new NeighbourJoining().join(RandomInputs.copy(D), RandomInputs.leaves(n)), n)
+					.toString();
+			if(!expected.equals(actual))
+				RandomInputs.fail("Trees differ for n = " + n, "plain:  " + expected, "pruned: " + actual);
+			trees++;
+		}
+		System.out.println(trees + " unrooted trees joined equally with and without pruning.");
+	}
+
+	/** Plain neighbour joining, every join searches all pairs. The new node
+	 * takes over the lower of the two rows.
+	 * @param D The rows of the symmetric distances, overwritten
+	 * @return The root of the tree
+	 */
+	static Cluster join(double[][] D) {
+		int n = D.length;
+		Cluster[] nodes = RandomInputs.leaves(n);
+		boolean[] active = new boolean[n];
+		for(int i = 0; i < n; i++) active[i] = true;
+		for(int r = n; r > 1; r--) {
+			double[] sums = new double[n];
+			for(int i = 0; i < n; i++)
+				for(int k = 0; k < n; k++)
+					if(active[i] && active[k] && k != i) sums[i] += D[i][k];
+			int a = -1, b = -1;
+			double best = Double.POSITIVE_INFINITY;
+			for(int i = 0; i < n; i++)
+				for(int j = i + 1; j < n; j++) {
+					if(!active[i] || !active[j]) continue;
+					double q = (r - 2) * D[i][j] - sums[i] - sums[j];
+					if(a < 0 || q < best) { best = q; a = i; b = j; }
+				}
+			double dab = D[a][b];
+			nodes[a] = new Cluster(nodes[a], nodes[b], dab);
+			active[b] = false;
+			for(int k = 0; k < n; k++) {
+				if(!active[k] || k == a) continue;
+				D[a][k] = (D[a][k] + D[b][k] - dab) / 2;
+				D[k][a] = D[a][k];
+			}
+		}
+		for(int i = 0; i < n; i++) if(active[i]) return nodes[i];
+		return null;
+	}
+
+	/** Collects the splits of the unrooted tree, every inner edge divides the
+	 * leaves into two sides
+	 * @param root The root
+	 * @param n Number of leaves
+	 * @return Per split the side without leaf 0, as a string of 0 and 1
+	 */
+	private static TreeSet<String> splits(Cluster root, int n) {
+		TreeSet<String> splits = new TreeSet<String>();
+		collect(root, n, splits);
+		return splits;
+	}
+
+	/** Adds the splits below a node
+	 * @param node The node
+	 * @param n Number of leaves
+	 * @param splits Receives the splits
+	 * @return The leaves below the node
+	 */
+	private static boolean[] collect(Cluster node, int n, TreeSet<String> splits) {
+		boolean[] side = new boolean[n];
+		if(node.isLeaf()) {
+			side[node.c] = true;
+			return side;
+		}
+		boolean[] left = collect(node.left, n, splits), right = collect(node.right, n, splits);
+		int size = 0;
+		for(int i = 0; i < n; i++) {
+			side[i] = left[i] || right[i];
+			if(side[i]) size++;
+		}
+		if(size >= 2 && size <= n - 2) {
+			char[] split = new char[n];
+			for(int i = 0; i < n; i++) split[i] = (side[i] != side[0]) ? '1' : '0';
+			splits.add(new String(split));
+		}
+		return side;
+	}
+}
@@ -0,0 +1,102 @@
+package cthoelken;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Clusters random integer matrices with PGMA and with the greedy search for
+ * the closest pair that it replaced. Few distinct distances give many ties,
+ * so the trees and heights only agree if ties are broken the same way. The
+ * upper triangle of the input has to survive the clustering.
+ *
+ * @author Clemens Thoelken
+ *
+ */
+class PGMACheck {
+
+	/** Runs the comparison
+	 * @param args Optional seed
+	 */
+	public static void main(String[] args) {
+		Random random = RandomInputs.random(args);
+		int trees = 0;
+		for(int round = 0; round < 2000; round++) {
+			int n = 1 + random.nextInt(24);
+			double[][] D = RandomInputs.integers(random, n, 1 + random.nextInt(6));
+			for(boolean weighted : new boolean[] {false, true}) {
+				String expected = describe(greedy(flatten(D), n, weighted));
+				String actual = describe(PGMA.cluster(RandomInputs.copy(D), RandomInputs.leaves(n), weighted));
+				for(int i = 0; i < n; i++)
+					for(int j = i + 1; j < n; j++)
+						if(D[i][j] != D[j][i])
+							RandomInputs.fail("Clustering overwrote the upper triangle at " + i + "," + j);
+				if(!expected.equals(actual))
+					RandomInputs.fail("Trees differ for n = " + n + (weighted ? ", WPGMA" : ", UPGMA"),
+							"greedy: " + expected, "PGMA:   " + actual);
+				trees++;
+			}
+		}
+		System.out.println(trees + " trees built equally by PGMA and the greedy search.");
+	}
+
+	/** The greedy search for the closest pair after every merge
+	 * @param D Row after row the symmetric n*n distances, overwritten
+	 * @param n Number of leaves
+	 * @param weighted Use WPGMA
+	 * @return The root of the tree
+	 */
+	static Cluster greedy(double[] D, int n, boolean weighted) {
+		ArrayList<Cluster> nodes = new ArrayList<Cluster>(n);
+		int[] rows = new int[n];
+		int[] sizes = new int[n];
+		for(int i = 0; i < n; i++) {
+			nodes.add(new Cluster(i, ""));
+			rows[i] = i; sizes[i] = 1;
+		}
+		while(nodes.size() > 1) {
+			double min = Double.POSITIVE_INFINITY;
+			int iMin = 0, jMin = 1;
+			for(int i = 0; i < nodes.size(); i++)
+				for(int j = i + 1; j < nodes.size(); j++)
+					if(min > D[rows[i] * n + rows[j]]) {
+						min = D[rows[i] * n + rows[j]];
+						iMin = i; jMin = j;
+					}
+			int a = rows[iMin], b = rows[jMin];
+			Cluster temp = new Cluster(nodes.get(iMin), nodes.get(jMin), D[a * n + b]);
+			nodes.remove(jMin); nodes.remove(iMin);
+			System.arraycopy(rows, jMin + 1, rows, jMin, nodes.size() + 1 - jMin);
+			System.arraycopy(rows, iMin + 1, rows, iMin, nodes.size() - iMin);
+			for(int k = 0; k < nodes.size(); k++) {
+				int r = rows[k];
+				double dist = weighted ? (D[a * n + r] + D[b * n + r]) / 2
+						: (sizes[a] * D[a * n + r] + sizes[b] * D[b * n + r]) / (sizes[a] + sizes[b]);
+				D[a * n + r] = dist; D[r * n + a] = dist;
+			}
+			sizes[a] += sizes[b];
+			rows[nodes.size()] = a;
+			nodes.add(temp);
+		}
+		return nodes.get(0);
+	}
+
+	/** Copies a matrix row after row into one array
+	 * @param D The rows
+	 * @return The n*n entries
+	 */
+	private static double[] flatten(double[][] D) {
+		int n = D.length;
+		double[] flat = new double[n * n];
+		for(int i = 0; i < n; i++) System.arraycopy(D[i], 0, flat, i * n, n);
+		return flat;
+	}
+
+	/** Writes a tree with the heights of its inner nodes
+	 * @param node The root
+	 * @return The tree in brackets, every inner node followed by its height
+	 */
+	private static String describe(Cluster node) {
+		if(node.isLeaf()) return "" + node.c;
+		return "(" + describe(node.left) + "," + describe(node.right) + "):" + node.distance;
+	}
+}
@@ -0,0 +1,117 @@
+package cthoelken;
+
+import java.util.Random;
+
+/**
+ * Merges random gapped groups with ProfileAligner and compares the score of
+ * the merge with a plain alignment of the two groups, whose column pairs
+ * score the average over all pairs of their symbols, computed pair by pair.
+ * The merge found from the profiles has to reach that optimum and keep the
+ * residues of every row.
+ *
+ * @author Clemens Thoelken
+ *
+ */
+class ProfileAlignerCheck {
+
+	/** Runs the comparison
+	 * @param args Optional seed
+	 */
+	public static void main(String[] args) {
+		Random random = RandomInputs.random(args);
+		String alphabet = RandomInputs.AMINO_ACIDS;
+		int merges = 0;
+		for(int round = 0; round < 1500; round++) {
+			boolean usePAM = random.nextBoolean();
+			double gapCosts = -random.nextInt(9) - random.nextInt(2) * 0.5;
+			SubstitutionMatrix omega = new SubstitutionMatrix(usePAM, gapCosts);
+			String[] rows1 = group(random, alphabet, 1 + random.nextInt(5), 1 + random.nextInt(25));
+			String[] rows2 = group(random, alphabet, 1 + random.nextInt(5), 1 + random.nextInt(25));
+			String input = String.join("\n", rows1) + "\n\n" + String.join("\n", rows2);
+
+			int[][] gaps = new ProfileAligner(omega, gapCosts).align(rows1, rows2);
+			String[] merged1 = new String[rows1.length], merged2 = new String[rows2.length];
+			for(int r = 0; r < rows1.length; r++) merged1[r] = Cluster.insertGaps(rows1[r], gaps[0]);
+			for(int r = 0; r < rows2.length; r++) merged2[r] = Cluster.insertGaps(rows2[r], gaps[1]);
+			if(merged1[0].length() != merged2[0].length())
+				RandomInputs.fail("Merged rows differ in length", input);
+			for(int r = 0; r < rows1.length; r++)
+				if(!merged1[r].replace("-", "").equals(rows1[r].replace("-", "")))
+					RandomInputs.fail("Merge changed a row of the first group", input);
+			for(int r = 0; r < rows2.length; r++)
+				if(!merged2[r].replace("-", "").equals(rows2[r].replace("-", "")))
+					RandomInputs.fail("Merge changed a row of the second group", input);
+
+			double expected = optimum(omega, gapCosts, rows1, rows2);
+			double actual = 0;
+			for(int col = 0; col < merged1[0].length(); col++)
+				actual += score(omega, gapCosts, merged1, col, merged2, col);
+			if(Math.abs(actual - expected) > 1e-9 * Math.max(1, Math.abs(expected)))
+				RandomInputs.fail("Merge scores " + actual + ", the optimum is " + expected, input);
+			merges++;
+		}
+		System.out.println(merges + " merges reached the optimum of the plain column alignment.");
+	}
+
+	/** Aligns the columns of two groups by Needleman-Wunsch, scoring every
+	 * pair of columns symbol pair by symbol pair
+	 * @param omega Substitution matrix
+	 * @param gapCosts Linear gap costs
+	 * @param rows1 Rows of the first group
+	 * @param rows2 Rows of the second group
+	 * @return The optimal score
+	 */
+	static double optimum(SubstitutionMatrix omega, double gapCosts, String[] rows1, String[] rows2) {
+		int n = rows1[0].length(), m = rows2[0].length();
+		double[][] D = new double[n+1][m+1];
+		for(int j = 1; j <= m; j++) D[0][j] = D[0][j-1] + score(omega, gapCosts, null, -1, rows2, j-1);
+		for(int i = 1; i <= n; i++) {
+			D[i][0] = D[i-1][0] + score(omega, gapCosts, rows1, i-1, null, -1);
+			for(int j = 1; j <= m; j++)
+				D[i][j] = Math.max(D[i-1][j-1] + score(omega, gapCosts, rows1, i-1, rows2, j-1),
+						Math.max(D[i-1][j] + score(omega, gapCosts, rows1, i-1, null, -1),
+								D[i][j-1] + score(omega, gapCosts, null, -1, rows2, j-1)));
+		}
+		return D[n][m];
+	}
+
+	/** Scores a pair of columns as the average over all pairs of symbols
+	 * @param omega Substitution matrix
+	 * @param gapCosts Linear gap costs
+	 * @param rows1 Rows of the first group, null for a column of gaps
+	 * @param col1 Column of the first group
+	 * @param rows2 Rows of the second group, null for a column of gaps
+	 * @param col2 Column of the second group
+	 * @return The average score
+	 */
+	private static double score(SubstitutionMatrix omega, double gapCosts,
+			String[] rows1, int col1, String[] rows2, int col2) {
+		int size1 = (rows1 == null) ? 1 : rows1.length, size2 = (rows2 == null) ? 1 : rows2.length;
+		double sum = 0;
+		for(int x = 0; x < size1; x++)
+			for(int y = 0; y < size2; y++) {
+				char a = (rows1 == null) ? '-' : rows1[x].charAt(col1);
+				char b = (rows2 == null) ? '-' : rows2[y].charAt(col2);
+				if(a == '-' && b == '-') continue;
+				sum += (a == '-' || b == '-') ? gapCosts : omega.getScore(a, b);
+			}
+		return sum / (size1 * size2);
+	}
+
+	/** Draws a group of rows of equal length with a few gaps
+	 * @param random The source of randomness
+	 * @param alphabet The symbols
+	 * @param count Number of rows
+	 * @param length Length of the rows
+	 * @return The rows
+	 */
+	private static String[] group(Random random, String alphabet, int count, int length) {
+		String[] rows = new String[count];
+		for(int r = 0; r < count; r++) {
+			char[] row = RandomInputs.sequence(random, alphabet, length).toCharArray();
+			for(int i = 0; i < length; i++) if(random.nextInt(6) == 0) row[i] = '-';
+			rows[r] = new String(row);
+		}
+		return rows;
+	}
+}
@@ -0,0 +1,111 @@
+package cthoelken;
+
+import java.util.Random;
+
+/**
+ * Random inputs shared by the checks in the test folder, which compare the
+ * fast engines against straightforward reference implementations. A failed
+ * comparison throws an AssertionError with the input that caused it.
+ *
+ * @author Clemens Thoelken
+ *
+ */
+class RandomInputs {
+
+	/** The amino acids including the ambiguous codes */
+	static final String AMINO_ACIDS = "ARNDCQEGHILKMFPSTWYVBZX";
+
+	/** Creates the source of randomness of a check
+	 * @param args Arguments of the main method, the first one is the seed
+	 * @return The generator, seeded with 1 without arguments
+	 */
+	static Random random(String[] args) {
+		return new Random((args.length > 0) ? Long.parseLong(args[0]) : 1);
+	}
+
+	/** Draws a random sequence
+	 * @param random The source of randomness
+	 * @param alphabet The symbols
+	 * @param length The length
+	 * @return The sequence
+	 */
+	static String sequence(Random random, String alphabet, int length) {
+		char[] seq = new char[length];
+		for(int i = 0; i < length; i++) seq[i] = alphabet.charAt(random.nextInt(alphabet.length()));
+		return new String(seq);
+	}
+
+	/** Copies a sequence with a few substitutions, insertions and deletions,
+	 * so an alignment of both has long matching runs and gaps
+	 * @param random The source of randomness
+	 * @param alphabet The symbols
+	 * @param s The sequence
+	 * @return The mutated sequence, never empty
+	 */
+	static String mutate(Random random, String alphabet, String s) {
+		StringBuilder mutated = new StringBuilder();
+		for(int i = 0; i < s.length(); i++) {
+			int event = random.nextInt(20);
+			if(event == 0) continue;
+			if(event == 1) mutated.append(sequence(random, alphabet, 1 + random.nextInt(4)));
+			mutated.append((event == 2) ? alphabet.charAt(random.nextInt(alphabet.length())) : s.charAt(i));
+		}
+		return (mutated.length() > 0) ? mutated.toString() : s;
+	}
+
+	/** Draws a symmetric distance matrix with whole numbers, few values give
+	 * many ties
+	 * @param random The source of randomness
+	 * @param n Number of rows
+	 * @param values Number of different distances, from 0 to values-1
+	 * @return The rows, 0 on the diagonal
+	 */
+	static double[][] integers(Random random, int n, int values) {
+		double[][] D = new double[n][n];
+		for(int i = 0; i < n; i++)
+			for(int j = i + 1; j < n; j++) D[i][j] = D[j][i] = random.nextInt(values);
+		return D;
+	}
+
+	/** Draws a symmetric distance matrix without ties
+	 * @param random The source of randomness
+	 * @param n Number of rows
+	 * @return The rows, 0 on the diagonal and between 1 and 101 elsewhere
+	 */
+	static double[][] reals(Random random, int n) {
+		double[][] D = new double[n][n];
+		for(int i = 0; i < n; i++)
+			for(int j = i + 1; j < n; j++) D[i][j] = D[j][i] = 1 + random.nextDouble() * 100;
+		return D;
+	}
+
+	/** Copies a matrix
+	 * @param D The rows
+	 * @return A copy of every row
+	 */
+	static double[][] copy(double[][] D) {
+		double[][] copy = new double[D.length][];
+		for(int i = 0; i < D.length; i++) copy[i] = D[i].clone();
+		return copy;
+	}
+
+	/** Creates leaves without sequences
+	 * @param n Number of leaves
+	 * @return The leaf Clusters 0 to n-1
+	 */
+	static Cluster[] leaves(int n) {
+		Cluster[] leaves = new Cluster[n];
+		for(int i = 0; i < n; i++) leaves[i] = new Cluster(i, "");
+		return leaves;
+	}
+
+	/** Reports a failed comparison
+	 * @param message What differs
+	 * @param inputs The inputs, one per line
+	 */
+	static void fail(String message, Object... inputs) {
+		StringBuilder text = new StringBuilder(message);
+		for(Object input : inputs) text.append('\n').append(input);
+		throw new AssertionError(text.toString());
+	}
+}
@@ -0,0 +1,44 @@
+package cthoelken;
+
+import java.util.Random;
+
+/**
+ * Scores random and closely related pairs with StripedGotoh at several lane
+ * counts and compares the result with the filled Gotoh cost matrices. Short
+ * sequences leave lanes empty, mutated copies give long gaps that have to
+ * cross lane borders in the lazy-F loop.
+ *
+ * @author Clemens Thoelken
+ *
+ */
+class StripedGotohCheck {
+
+	/** Runs the comparison
+	 * @param args Optional seed
+	 */
+	public static void main(String[] args) {
+		Random random = RandomInputs.random(args);
+		String alphabet = RandomInputs.AMINO_ACIDS;
+		int[] lanes = {1, 2, 3, 8, 16};
+		int pairs = 0;
+		for(int round = 0; round < 3000; round++) {
+			String s1 = RandomInputs.sequence(random, alphabet, 1 + random.nextInt(70));
+			String s2 = (random.nextInt(4) == 0) ? RandomInputs.mutate(random, alphabet, s1)
+					: RandomInputs.sequence(random, alphabet, 1 + random.nextInt(70));
+			boolean usePAM = random.nextBoolean();
+			int gapCosts = -random.nextInt(13), gapCostsExt = -random.nextInt(4);
+			SubstitutionMatrix omega = new SubstitutionMatrix(usePAM, gapCosts);
+			EncodedSequence e1 = new EncodedSequence(s1), e2 = new EncodedSequence(s2);
+			double expected = new Gotoh().getEditScript(e1, e2, usePAM, gapCosts, gapCostsExt).getScore();
+			for(int l : lanes) {
+				int actual = new StripedGotoh(omega, gapCosts, gapCostsExt, l).score(e1.codes, e2.codes);
+				if(actual != expected)
+					RandomInputs.fail("Striped score " + actual + " with " + l + " lanes, Gotoh " + expected
+							+ ", gap costs " + gapCosts + "/" + gapCostsExt + (usePAM ? ", PAM" : ", BLOSUM"),
+							s1, s2);
+			}
+			pairs++;
+		}
+		System.out.println(pairs + " pairs scored equally at " + lanes.length + " lane counts.");
+	}
+}
@@ -0,0 +1,67 @@
+package cthoelken;
+
+import java.math.BigInteger;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * Counts the co-optimal paths of short pairs with Needleman-Wunsch and Gotoh
+ * and enumerates them one by one; both numbers have to agree. Few symbols
+ * and cheap gaps give many co-optimal paths. Every uniform sample has to be
+ * one of the enumerated alignments.
+ *
+ * @author Clemens Thoelken
+ *
+ */
+class TracebackCheck {
+
+	/** Runs the comparison
+	 * @param args Optional seed
+	 */
+	public static void main(String[] args) {
+		Random random = RandomInputs.random(args);
+		String alphabet = "AGSTW";
+		int pairs = 0;
+		for(int round = 0; round < 600; round++) {
+			EncodedSequence s1 = new EncodedSequence(RandomInputs.sequence(random, alphabet, 1 + random.nextInt(9)));
+			EncodedSequence s2 = new EncodedSequence(RandomInputs.sequence(random, alphabet, 1 + random.nextInt(9)));
+			boolean usePAM = random.nextBoolean();
+			double gapCosts = -random.nextInt(5), gapCostsExt = -random.nextInt(3);
+
+			NeedlemanWunsch nw = new NeedlemanWunsch();
+			compare("Needleman-Wunsch", s1, s2, nw.countAlignments(s1, s2, usePAM, gapCosts),
+					nw.getAlignments(s1, s2, usePAM, gapCosts, Integer.MAX_VALUE),
+					nw.sampleAlignments(s1, s2, usePAM, gapCosts, 20, round));
+			Gotoh gotoh = new Gotoh();
+			compare("Gotoh", s1, s2, gotoh.countAlignments(s1, s2, usePAM, gapCosts, gapCostsExt),
+					gotoh.getAlignments(s1, s2, usePAM, gapCosts, gapCostsExt, Integer.MAX_VALUE),
+					gotoh.sampleAlignments(s1, s2, usePAM, gapCosts, gapCostsExt, 20, round));
+			pairs++;
+		}
+		System.out.println(pairs + " pairs counted and enumerated equally by both algorithms.");
+	}
+
+	/** Compares the count with the enumerated alignments and checks the samples
+	 * @param name Name of the algorithm
+	 * @param s1 The first sequence
+	 * @param s2 The second sequence
+	 * @param count The counted number of paths
+	 * @param all The enumerated alignments
+	 * @param samples The sampled alignments
+	 */
+	private static void compare(String name, EncodedSequence s1, EncodedSequence s2, BigInteger count,
+			Iterable<Alignment> all, Iterable<Alignment> samples) {
+		HashSet<String> enumerated = new HashSet<String>();
+		long paths = 0;
+		for(Alignment algn : all) {
+			enumerated.add(algn.getSeq(0) + "/" + algn.getSeq(1));
+			paths++;
+		}
+		if(!count.equals(BigInteger.valueOf(paths)))
+			RandomInputs.fail(name + ": " + count + " paths counted, " + paths + " enumerated", s1, s2);
+		for(Alignment algn : samples)
+			if(!enumerated.contains(algn.getSeq(0) + "/" + algn.getSeq(1)))
+				RandomInputs.fail(name + ": sample " + algn.getSeq(0) + "/" + algn.getSeq(1)
+						+ " is not optimal", s1, s2);
+	}
+}